@@ -0,0 +1,233 @@
+package larpon.android.view;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Replays gesture traces through a {@link SeekModel} the way RangeSeekBar.onTouchEvent()
+ * feeds it, and checks the throughput and the state every scenario ends in.
+ *
+ * Run with:
+ *   $ ../gradlew -p benchmarks replay
+ * Pass -PreplayArgs="--min-rate 1000000" to fail on scenarios replaying fewer
+ * events per second, or trace files written by GestureTrace.writeTo() to replay
+ * those instead of the built-in scenarios. A replay must not allocate, checked
+ * where the JVM counts allocated bytes per thread. Exits with 1 if a check fails.
+ */
+public final class GestureReplay {
+
+    // Same layout as RangeSeekBarBenchmark - 1080px wide bar with 50px thumbs
+    private static final float PIXEL_RANGE_MIN = 25;
+    private static final float PIXEL_RANGE_MAX = 1055;
+    private static final long MEASURE_NANOS = 500000000L;
+
+    private GestureReplay() {
+    }
+
+    /**
+     * Feed every event of a trace to the model.
+     *
+     * @return the number of events replayed
+     */
+    static int replay(SeekModel model, GestureTrace trace) {
+        if(model.getThumbCount() == 0)
+            return 0;
+        int events = trace.size();
+        for(int i = 0; i < events; i++) {
+            float coordinate = trace.getCoordinate(i);
+            if(trace.getAction(i) == GestureTrace.ACTION_DOWN)
+                model.press(coordinate);
+            model.seekTo(coordinate);
+        }
+        return events;
+    }
+
+    private static final class Scenario {
+        final String name;
+        final GestureTrace trace;
+        // Expected values after the replay, or null to compare their Arrays.hashCode()
+        final float[] expected;
+        final int expectedHash;
+
+        Scenario(String name, GestureTrace trace, float[] expected, int expectedHash) {
+            this.name = name;
+            this.trace = trace;
+            this.expected = expected;
+            this.expectedHash = expectedHash;
+        }
+    }
+
+    private static float[] filled(int thumbs, float value) {
+        float[] values = new float[thumbs];
+        Arrays.fill(values, value);
+        return values;
+    }
+
+    private static float[] spread(int thumbs) {
+        float[] values = new float[thumbs];
+        for(int i = 0; i < thumbs; i++)
+            values[i] = 100f * (i + 0.5f) / thumbs;
+        return values;
+    }
+
+    private static GestureTrace random(int thumbs, boolean limitThumbRange, int drags, long seed) {
+        return random(0, 100, spread(thumbs), limitThumbRange, drags, seed);
+    }
+
+    private static GestureTrace random(float scaleRangeMin, float scaleRangeMax, float[] values, boolean limitThumbRange, int drags, long seed) {
+        GestureTrace trace = new GestureTrace(PIXEL_RANGE_MIN, PIXEL_RANGE_MAX, scaleRangeMin, scaleRangeMax, 5, limitThumbRange, values);
+        Random random = new Random(seed);
+        for(int i = 0; i < drags; i++) {
+            // Touches may start and end off the track
+            float from = random.nextFloat() * 1080;
+            float to = random.nextFloat() * 1080;
+            trace.drag(from, to, 1 + random.nextInt(32));
+        }
+        return trace;
+    }
+
+    static List<Scenario> scenarios() {
+        List<Scenario> scenarios = new ArrayList<Scenario>();
+        int stacked = 1000;
+
+        // Peel the top thumb off a stack at the start of the track, one drag per thumb
+        GestureTrace peelStart = new GestureTrace(PIXEL_RANGE_MIN, PIXEL_RANGE_MAX, 0, 100, 5, true, filled(stacked, 0));
+        for(int i = 0; i < stacked; i++)
+            peelStart.drag(PIXEL_RANGE_MIN, PIXEL_RANGE_MAX, 100);
+        scenarios.add(new Scenario("stacked-start-1000", peelStart, filled(stacked, 100), 0));
+
+        // Same from the end of the track, where every drag has to get unstuck first
+        GestureTrace peelEnd = new GestureTrace(PIXEL_RANGE_MIN, PIXEL_RANGE_MAX, 0, 100, 5, true, filled(stacked, 100));
+        for(int i = 0; i < stacked; i++)
+            peelEnd.drag(PIXEL_RANGE_MAX, PIXEL_RANGE_MIN, 100);
+        scenarios.add(new Scenario("stacked-end-1000", peelEnd, filled(stacked, 0), 0));
+
+        // Random drags, checked against the state they ended in when recorded
+        scenarios.add(new Scenario("random-limited-100", random(100, true, 10000, 42), null, 1451969409));
+        scenarios.add(new Scenario("random-free-100", random(100, false, 10000, 42), null, -1202369663));
+
+        // The limited drags on a scale running from 100 down to 0. Starting from the
+        // mirrored values, every thumb ends at 100 minus its value in random-limited-100
+        float[] mirrored = spread(100);
+        for(int i = 0; i < mirrored.length; i++)
+            mirrored[i] = 100 - mirrored[i];
+        scenarios.add(new Scenario("random-reversed-100", random(100, 0, mirrored, true, 10000, 42), null, -1593095295));
+        return scenarios;
+    }
+
+    private static GestureTrace roundTrip(GestureTrace trace) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        trace.writeTo(out);
+        return GestureTrace.readFrom(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    /**
+     * @return events per second
+     */
+    private static double measure(GestureTrace trace) {
+        long events = 0;
+        long nanos = 0;
+        // One round to warm up, then replay until we have enough time measured
+        for(int round = 0; round < 3 || nanos < MEASURE_NANOS; round++) {
+            SeekModel model = trace.newModel();
+            long start = System.nanoTime();
+            int replayed = replay(model, trace);
+            long time = System.nanoTime() - start;
+            if(round > 0) {
+                events += replayed;
+                nanos += time;
+            }
+        }
+        return events * 1e9 / nanos;
+    }
+
+    /**
+     * @return the bytes allocated replaying the trace on a model in its start state,
+     * or -1 if the JVM doesn't count them
+     */
+    private static long allocatedBytes(GestureTrace trace) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if(!(threads instanceof com.sun.management.ThreadMXBean))
+            return -1;
+        com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean) threads;
+        if(!counter.isThreadAllocatedMemorySupported() || !counter.isThreadAllocatedMemoryEnabled())
+            return -1;
+        long thread = Thread.currentThread().getId();
+        SeekModel model = trace.newModel();
+        // Reading the counter may allocate by itself
+        long before = counter.getThreadAllocatedBytes(thread);
+        long overhead = counter.getThreadAllocatedBytes(thread) - before;
+        before = counter.getThreadAllocatedBytes(thread);
+        replay(model, trace);
+        return Math.max(0, counter.getThreadAllocatedBytes(thread) - before - overhead);
+    }
+
+    private static String allocationState(long allocated) {
+        return (allocated > 0) ? ", ALLOCATES "+allocated+" BYTES" : "";
+    }
+
+    public static void main(String[] args) throws IOException {
+        double minRate = 0;
+        List<String> files = new ArrayList<String>();
+        for(int i = 0; i < args.length; i++) {
+            if("--min-rate".equals(args[i]))
+                minRate = Double.parseDouble(args[++i]);
+            else
+                files.add(args[i]);
+        }
+
+        boolean failed = false;
+        if(files.isEmpty()) {
+            for(Scenario scenario : scenarios()) {
+                // Replay what the format gives back, not what was built
+                GestureTrace trace = roundTrip(scenario.trace);
+                SeekModel model = trace.newModel();
+                replay(model, trace);
+                float[] values = model.getValues(new float[model.getThumbCount()]);
+                boolean ok;
+                if(scenario.expected != null)
+                    ok = Arrays.equals(values, scenario.expected);
+                else
+                    ok = Arrays.hashCode(values) == scenario.expectedHash;
+                String state = ok ? "ok" : "FAILED";
+                double rate = measure(trace);
+                if(rate < minRate)
+                    state += ", TOO SLOW";
+                long allocated = allocatedBytes(trace);
+                state += allocationState(allocated);
+                failed |= !ok || rate < minRate || allocated > 0;
+                System.out.printf("%-20s %8d events %12.0f events/s  %s%n", scenario.name, trace.size(), rate, state);
+            }
+        } else {
+            for(String file : files) {
+                InputStream in = new FileInputStream(file);
+                GestureTrace trace;
+                try {
+                    trace = GestureTrace.readFrom(in);
+                } finally {
+                    in.close();
+                }
+                SeekModel model = trace.newModel();
+                replay(model, trace);
+                float[] values = model.getValues(new float[model.getThumbCount()]);
+                double rate = measure(trace);
+                long allocated = allocatedBytes(trace);
+                failed |= rate < minRate || allocated > 0;
+                System.out.printf("%-20s %8d events %12.0f events/s  hash %d%s%s%n", file, trace.size(), rate,
+                        Arrays.hashCode(values), (rate < minRate) ? ", TOO SLOW" : "", allocationState(allocated));
+            }
+        }
+        if(failed)
+            System.exit(1);
+    }
+
+}
@@ -0,0 +1,164 @@
+package larpon.android.view;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A recorded gesture on a RangeSeekBar: the bar it starts from and its touch events.
+ *
+ * The start state is the pixel range, the float scale, whether thumb range is
+ * limited and the value of every thumb. Each event is a MotionEvent action code
+ * and the coordinate along the bar, as RangeSeekBar reads it from the event.
+ * Historical samples of a batched ACTION_MOVE are moves of their own.
+ *
+ * The binary form is a header followed by one byte per action and one float
+ * per coordinate, so an event takes 5 bytes:
+ *
+ * <pre>
+ * int magic 'RSGT', int version
+ * float pixelRangeMin, float pixelRangeMax
+ * float scaleRangeMin, float scaleRangeMax, float scaleStep
+ * boolean limitThumbRange
+ * int thumbs, float[thumbs] values
+ * int events, byte[events] actions, float[events] coordinates
+ * </pre>
+ */
+public final class GestureTrace {
+
+    // Same codes as android.view.MotionEvent
+    public static final int ACTION_DOWN = 0;
+    public static final int ACTION_UP = 1;
+    public static final int ACTION_MOVE = 2;
+    public static final int ACTION_CANCEL = 3;
+
+    private static final int MAGIC = 0x52534754;
+    private static final int VERSION = 1;
+
+    private final float pixelRangeMin;
+    private final float pixelRangeMax;
+    private final float scaleRangeMin;
+    private final float scaleRangeMax;
+    private final float scaleStep;
+    private final boolean limitThumbRange;
+    private final float[] values;
+
+    private byte[] actions = new byte[64];
+    private float[] coordinates = new float[64];
+    private int size;
+
+    public GestureTrace(float pixelRangeMin, float pixelRangeMax, float scaleRangeMin, float scaleRangeMax,
+                        float scaleStep, boolean limitThumbRange, float[] values) {
+        this.pixelRangeMin = pixelRangeMin;
+        this.pixelRangeMax = pixelRangeMax;
+        this.scaleRangeMin = scaleRangeMin;
+        this.scaleRangeMax = scaleRangeMax;
+        this.scaleStep = scaleStep;
+        this.limitThumbRange = limitThumbRange;
+        this.values = values.clone();
+    }
+
+    /**
+     * @return a model in the start state of the trace
+     */
+    SeekModel newModel() {
+        SeekModel model = new SeekModel(new ScaleMapping(scaleRangeMin, scaleRangeMax, scaleStep));
+        model.setLimitThumbRange(limitThumbRange);
+        model.setPixelRange(pixelRangeMin, pixelRangeMax);
+        model.reset(values.length);
+        for(int i = 0; i < values.length; i++)
+            model.assignValue(i, values[i]);
+        return model;
+    }
+
+    public int getThumbCount() {
+        return values.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getAction(int event) {
+        return actions[event];
+    }
+
+    public float getCoordinate(int event) {
+        return coordinates[event];
+    }
+
+    public GestureTrace add(int action, float coordinate) {
+        if(size == actions.length) {
+            actions = Arrays.copyOf(actions, size * 2);
+            coordinates = Arrays.copyOf(coordinates, size * 2);
+        }
+        actions[size] = (byte) action;
+        coordinates[size] = coordinate;
+        size++;
+        return this;
+    }
+
+    /**
+     * Press at from, move to to in equal steps and let go there.
+     */
+    public GestureTrace drag(float from, float to, int moves) {
+        add(ACTION_DOWN, from);
+        for(int i = 1; i <= moves; i++)
+            add(ACTION_MOVE, from + (to - from) * i / (moves + 1));
+        return add(ACTION_UP, to);
+    }
+
+    public void writeTo(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeFloat(pixelRangeMin);
+        out.writeFloat(pixelRangeMax);
+        out.writeFloat(scaleRangeMin);
+        out.writeFloat(scaleRangeMax);
+        out.writeFloat(scaleStep);
+        out.writeBoolean(limitThumbRange);
+        out.writeInt(values.length);
+        for(float value : values)
+            out.writeFloat(value);
+        out.writeInt(size);
+        out.write(actions, 0, size);
+        for(int i = 0; i < size; i++)
+            out.writeFloat(coordinates[i]);
+        out.flush();
+    }
+
+    /**
+     * @throws IOException if the stream doesn't hold a trace of this version
+     */
+    public static GestureTrace readFrom(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if(in.readInt() != MAGIC)
+            throw new IOException("Not a gesture trace");
+        int version = in.readInt();
+        if(version != VERSION)
+            throw new IOException("Unsupported gesture trace version "+version);
+        float pixelRangeMin = in.readFloat();
+        float pixelRangeMax = in.readFloat();
+        float scaleRangeMin = in.readFloat();
+        float scaleRangeMax = in.readFloat();
+        float scaleStep = in.readFloat();
+        boolean limitThumbRange = in.readBoolean();
+        float[] values = new float[in.readInt()];
+        for(int i = 0; i < values.length; i++)
+            values[i] = in.readFloat();
+        GestureTrace trace = new GestureTrace(pixelRangeMin, pixelRangeMax, scaleRangeMin, scaleRangeMax, scaleStep, limitThumbRange, values);
+        int size = in.readInt();
+        trace.actions = new byte[Math.max(size, 1)];
+        trace.coordinates = new float[Math.max(size, 1)];
+        in.readFully(trace.actions, 0, size);
+        for(int i = 0; i < size; i++)
+            trace.coordinates[i] = in.readFloat();
+        trace.size = size;
+        return trace;
+    }
+
+}
@@ -0,0 +1,188 @@
+package larpon.android.view;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Interaction paths of RangeSeekBar at increasing thumb counts.
+ *
+ * The bar is laid out as a 1080px wide horizontal bar with the default
+ * 50px thumbs and a 0-100 scale in steps of 5, with the thumbs distributed
+ * the same way RangeSeekBar.distributeThumbsEvenly() does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RangeSeekBarBenchmark {
+
+    private static final float VIEW_WIDTH = 1080;
+    private static final float THUMB_HALF = 25;
+    private static final int COORDINATES = 1024;
+    private static final int DRAG_MOVES = 64;
+    private static final int CLOSEST = 3;
+    private static final int CATALOG_SIZE = 500000;
+
+    @Param({"2", "10", "100", "1000", "10000"})
+    public int thumbs;
+
+    private ScaleMapping mapping;
+    private ScaleMapping timeMapping;
+    private StepScale timeScale;
+    private ScaleMapper logMapper;
+    private ScaleLookup logLookup;
+    private RangeCountIndex catalog;
+    private SeekModel model;
+    private ThumbIndex index;
+    private float pixelRangeMin;
+    private float pixelRangeMax;
+
+    private float[] coordinates;
+    private int[] thumbIndices;
+    private float[] dragOffsets;
+    private int[] closest = new int[CLOSEST];
+    private int cursor;
+
+    @Setup
+    public void setUp() {
+        pixelRangeMin = THUMB_HALF;
+        pixelRangeMax = VIEW_WIDTH - THUMB_HALF;
+        mapping = new ScaleMapping(0, 100, 5);
+        model = new SeekModel(mapping);
+        model.setPixelRange(pixelRangeMin, pixelRangeMax);
+        model.reset(thumbs);
+        model.distributeEvenly();
+        index = model.getThumbIndex();
+
+        // One day of epoch milliseconds in minute steps
+        timeScale = StepScale.ofLong(1451606400000L, 1451692800000L, 60000L);
+        timeMapping = new ScaleMapping(0, 0, 0);
+        timeMapping.setSteppedRange(timeScale.toFloat(0), timeScale.toFloat(timeScale.getStepCount()), timeScale.getStepCount());
+        timeMapping.setPixelRange(pixelRangeMin, pixelRangeMax);
+
+        // File sizes from 1 KB to 1 TB
+        logMapper = new ScaleMapper.Log(1e3f, 1e12f);
+        logLookup = new ScaleLookup();
+        logLookup.build(logMapper, pixelRangeMin, pixelRangeMax);
+
+        Random random = new Random(42);
+        double[] prices = new double[CATALOG_SIZE];
+        for(int i = 0; i < CATALOG_SIZE; i++)
+            prices[i] = random.nextDouble() * 100;
+        catalog = new RangeCountIndex(prices);
+        coordinates = new float[COORDINATES];
+        thumbIndices = new int[COORDINATES];
+        for(int i = 0; i < COORDINATES; i++) {
+            coordinates[i] = random.nextFloat() * VIEW_WIDTH;
+            thumbIndices[i] = random.nextInt(thumbs);
+        }
+
+        // Out and back again
+        dragOffsets = new float[DRAG_MOVES + 2];
+        for(int i = 0; i < dragOffsets.length; i++)
+            dragOffsets[i] = (float) Math.sin(i * Math.PI / (DRAG_MOVES + 1)) * 100;
+    }
+
+    private int next() {
+        cursor = (cursor + 1) & (COORDINATES - 1);
+        return cursor;
+    }
+
+    @Benchmark
+    public int closestThumbIndex() {
+        return index.getClosestIndex(coordinates[next()]);
+    }
+
+    @Benchmark
+    public float lowerThumbRangeLimit() {
+        return index.getLowerLimit(thumbIndices[next()], pixelRangeMin);
+    }
+
+    @Benchmark
+    public float higherThumbRangeLimit() {
+        return index.getHigherLimit(thumbIndices[next()], pixelRangeMax);
+    }
+
+    @Benchmark
+    public float asStep() {
+        return mapping.snapPixel(coordinates[next()]);
+    }
+
+    /**
+     * Pixel to exact long value on a step scale, as a drag does with a StepScale set.
+     */
+    @Benchmark
+    public long stepScaleValue() {
+        return timeScale.toLong(timeScale.clampStep(timeMapping.pixelToStep(coordinates[next()])));
+    }
+
+    /**
+     * Pixel to value on a log scale straight from the mapper.
+     */
+    @Benchmark
+    public float logScaleValue() {
+        float coordinate = coordinates[next()];
+        return logMapper.toValue((coordinate - pixelRangeMin) / (pixelRangeMax - pixelRangeMin));
+    }
+
+    /**
+     * Pixel to value on a log scale from the table RangeSeekBar builds on layout.
+     */
+    @Benchmark
+    public float logScaleLookup() {
+        return logLookup.pixelToValue(coordinates[next()]);
+    }
+
+    /**
+     * Items of a 500k catalog between two thumb values, as getCountInRange() does per move.
+     */
+    @Benchmark
+    public int countInRange() {
+        int i = next();
+        float low = mapping.pixelToScale(index.getPosition(thumbIndices[i]));
+        return catalog.count(low, low + 10);
+    }
+
+    @Benchmark
+    public int closestThumbs() {
+        return index.getClosestIndices(coordinates[next()], CLOSEST, closest);
+    }
+
+    /**
+     * One ACTION_DOWN, DRAG_MOVES x ACTION_MOVE and one ACTION_UP through
+     * SeekModel, as RangeSeekBar.onTouchEvent feeds it. The drag returns to
+     * where it started and the thumbs it moved are put back, so the layout
+     * is the same for every invocation.
+     */
+    @Benchmark
+    public float drag() {
+        float down = coordinates[next()];
+        int pressed = model.press(down);
+        float origin = model.getPosition(pressed);
+
+        float value = 0;
+        for(int i = 0; i < dragOffsets.length; i++) {
+            model.seekTo(down + dragOffsets[i]);
+            value += model.getValue(model.getCurrentIndex());
+        }
+        // A drag out of a stack moves another thumb of the stack instead
+        model.setPosition(model.getCurrentIndex(), origin);
+        model.setPosition(pressed, origin);
+        return value;
+    }
+
+}
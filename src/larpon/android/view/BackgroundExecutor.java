@@ -0,0 +1,57 @@
+package larpon.android.view;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The background thread RangeSeekBar bins and indexes data on.
+ *
+ * One daemon thread at background priority is shared by all bars and tasks
+ * run in the order they were submitted, so results handed back to the UI
+ * thread with {@link #deliver(Runnable)} arrive in that order too.
+ */
+final class BackgroundExecutor {
+
+    private static ExecutorService executor;
+    private static Handler mainHandler;
+
+    private BackgroundExecutor() {
+    }
+
+    static synchronized void execute(Runnable task) {
+        if(executor == null) {
+            executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    Thread thread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, "RangeSeekBar background");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        executor.execute(task);
+    }
+
+    /**
+     * Run a result on the main thread. Unlike View.post() this doesn't depend
+     * on the bar being attached - below API 24 a detached view queues posts
+     * from other threads where they never run.
+     */
+    static synchronized void deliver(Runnable result) {
+        if(mainHandler == null)
+            mainHandler = new Handler(Looper.getMainLooper());
+        mainHandler.post(result);
+    }
+
+}
@@ -0,0 +1,74 @@
+package larpon.android.view;
+
+import android.content.Context;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.graphics.drawable.Drawable;
+
+import java.util.WeakHashMap;
+
+/**
+ * Process-wide cache of the default RangeSeekBar drawables.
+ *
+ * The drawables are resolved once per theme and configuration and kept as
+ * constant states, so a new bar only has to create its drawables from those
+ * instead of going through Resources.getDrawable() four times. Entries go
+ * away with their theme. A configuration change resolves them again.
+ */
+final class DefaultDrawables {
+
+    private static final WeakHashMap<Resources.Theme, DefaultDrawables> cache = new WeakHashMap<Resources.Theme, DefaultDrawables>();
+
+    private final Configuration configuration;
+    private final Drawable.ConstantState background;
+    private final Drawable.ConstantState thumb;
+    private final Drawable.ConstantState range;
+    private final Drawable.ConstantState track;
+
+    private DefaultDrawables(Resources resources) {
+        configuration = new Configuration(resources.getConfiguration());
+        background = resources.getDrawable(R.drawable.rangeseekbar).getConstantState();
+        thumb = resources.getDrawable(R.drawable.thumb).getConstantState();
+        range = resources.getDrawable(R.drawable.rangegradient).getConstantState();
+        track = resources.getDrawable(R.drawable.trackgradient).getConstantState();
+    }
+
+    static synchronized DefaultDrawables get(Context context) {
+        Resources resources = context.getResources();
+        Resources.Theme theme = context.getTheme();
+        DefaultDrawables defaults = cache.get(theme);
+        if(defaults == null || !defaults.configuration.equals(resources.getConfiguration())) {
+            defaults = new DefaultDrawables(resources);
+            cache.put(theme, defaults);
+        }
+        return defaults;
+    }
+
+    static synchronized void clear() {
+        cache.clear();
+    }
+
+    Drawable newBackground(Resources resources) {
+        return newDrawable(background, resources, R.drawable.rangeseekbar);
+    }
+
+    Drawable newThumb(Resources resources) {
+        return newDrawable(thumb, resources, R.drawable.thumb);
+    }
+
+    Drawable newRange(Resources resources) {
+        return newDrawable(range, resources, R.drawable.rangegradient);
+    }
+
+    Drawable newTrack(Resources resources) {
+        return newDrawable(track, resources, R.drawable.trackgradient);
+    }
+
+    private static Drawable newDrawable(Drawable.ConstantState state, Resources resources, int id) {
+        // Drawables without a constant state can't be shared
+        if(state == null)
+            return resources.getDrawable(id);
+        return state.newDrawable(resources);
+    }
+
+}
@@ -0,0 +1,61 @@
+package larpon.android.view;
+
+/**
+ * Sample counts binned along the track of a {@link RangeSeekBar}, one bin per pixel.
+ *
+ * Samples are placed with the bar's {@link ScaleMapper}, so bins follow the
+ * scale whether it is linear, logarithmic or piecewise. Samples outside the
+ * scale are dropped. Binning is additive, so appended samples can be binned
+ * on their own and merged in with {@link #add(Histogram)}.
+ */
+final class Histogram {
+
+    private final int[] counts;
+    private int maxCount;
+
+    Histogram(int binCount) {
+        counts = new int[Math.max(1, binCount)];
+    }
+
+    int getBinCount() {
+        return counts.length;
+    }
+
+    int getCount(int bin) {
+        return counts[bin];
+    }
+
+    int getMaxCount() {
+        return maxCount;
+    }
+
+    /**
+     * Bin samples[from] up to, but not including, samples[to].
+     */
+    void add(double[] samples, int from, int to, ScaleMapper mapper) {
+        int binCount = counts.length;
+        for(int i = from; i < to; i++) {
+            float fraction = mapper.toFraction((float) samples[i]);
+            // Also drops NaN
+            if(!(fraction >= 0 && fraction <= 1))
+                continue;
+            int bin = (int) (fraction * binCount);
+            if(bin == binCount)
+                bin--;
+            if(++counts[bin] > maxCount)
+                maxCount = counts[bin];
+        }
+    }
+
+    /**
+     * Merge the counts of a histogram with the same number of bins into this one.
+     */
+    void add(Histogram other) {
+        for(int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+            if(counts[i] > maxCount)
+                maxCount = counts[i];
+        }
+    }
+
+}
@@ -0,0 +1,189 @@
+package larpon.android.view;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.view.View;
+
+/**
+ * Density overlay drawn behind the range of a {@link RangeSeekBar}.
+ *
+ * Samples are binned on the {@link BackgroundExecutor} and the result is handed back to
+ * the UI thread, where it is turned into a Path that is only rebuilt when the
+ * counts or the track bounds change. Appended samples are binned on their own
+ * and merged into the current counts. A change of size or scale rebins everything.
+ *
+ * All methods must be called on the UI thread.
+ */
+final class HistogramOverlay {
+
+    private static final int DEFAULT_COLOR = 0x40000000;
+
+    private final View view;
+
+    private double[] samples = new double[0];
+    private int sampleCount;
+    // False while samples is the array handed to us - copied on first append
+    private boolean ownsSamples = true;
+
+    // Results of binnings started before the last rebin are dropped
+    private int generation;
+    private boolean binningValid;
+    private ScaleMapper mapper;
+    private int binCount;
+    private Histogram histogram;
+
+    private final Path path = new Path();
+    private final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private boolean pathValid;
+
+    HistogramOverlay(View view) {
+        this.view = view;
+        paint.setStyle(Paint.Style.FILL);
+        paint.setColor(DEFAULT_COLOR);
+    }
+
+    void setSamples(double[] samples) {
+        this.samples = samples;
+        this.sampleCount = samples.length;
+        this.ownsSamples = false;
+        invalidateBinning();
+    }
+
+    void appendSamples(double[] source, int offset, int count) {
+        int from = sampleCount;
+        int needed = sampleCount + count;
+        if(!ownsSamples || samples.length < needed) {
+            double[] grown = new double[Math.max(needed, samples.length * 2)];
+            System.arraycopy(samples, 0, grown, 0, sampleCount);
+            samples = grown;
+            ownsSamples = true;
+        }
+        // Writes land past what running binnings read, so they need no locking
+        System.arraycopy(source, offset, samples, from, count);
+        sampleCount = needed;
+        if(binningValid)
+            submit(from, needed, false);
+    }
+
+    void setColor(int color) {
+        paint.setColor(color);
+    }
+
+    int getColor() {
+        return paint.getColor();
+    }
+
+    /**
+     * Bin all samples again before the next draw.
+     */
+    void invalidateBinning() {
+        binningValid = false;
+        generation++;
+    }
+
+    void invalidatePath() {
+        pathValid = false;
+    }
+
+    private void submit(final int from, final int to, final boolean full) {
+        final int generation = this.generation;
+        final double[] samples = this.samples;
+        final ScaleMapper mapper = this.mapper;
+        final int binCount = this.binCount;
+        BackgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Histogram binned = new Histogram(binCount);
+                binned.add(samples, from, to, mapper);
+                // Through the main looper, a post to a detached view could be lost
+                BackgroundExecutor.deliver(new Runnable() {
+                    @Override
+                    public void run() {
+                        apply(generation, binned, full);
+                    }
+                });
+            }
+        });
+    }
+
+    private void apply(int generation, Histogram binned, boolean full) {
+        if(generation != this.generation)
+            return;
+        if(full)
+            histogram = binned;
+        else if(histogram != null)
+            histogram.add(binned);
+        pathValid = false;
+        view.invalidate();
+    }
+
+    /**
+     * Start binning all samples in the background, one bin per pixel between start and end.
+     * The current counts are stretched over the track until the new ones arrive.
+     *
+     * @param mapper the scale of the bar
+     */
+    void rebin(ScaleMapper mapper, float start, float end) {
+        this.mapper = mapper;
+        this.binCount = Math.max(1, (int) Math.ceil(end - start));
+        binningValid = true;
+        if(sampleCount > 0)
+            submit(0, sampleCount, true);
+        else {
+            // Empty counts that appended samples can be merged into
+            histogram = new Histogram(binCount);
+        }
+        pathValid = false;
+    }
+
+    /**
+     * Draw the current counts into the track area.
+     *
+     * @param start pixel coordinate of the start of the scale on the main axis
+     * @param end pixel coordinate of the end of the scale on the main axis
+     * @param crossStart top (horizontal) or left (vertical) edge of the track
+     * @param crossEnd bottom (horizontal) or right (vertical) edge of the track
+     */
+    void draw(Canvas canvas, boolean vertical, float start, float end, float crossStart, float crossEnd) {
+        if(histogram == null || histogram.getMaxCount() == 0)
+            return;
+        if(!pathValid) {
+            buildPath(vertical, start, end, crossStart, crossEnd);
+            pathValid = true;
+        }
+        canvas.drawPath(path, paint);
+    }
+
+    private void buildPath(boolean vertical, float start, float end, float crossStart, float crossEnd) {
+        int bins = histogram.getBinCount();
+        float binSize = (end - start) / bins;
+        float scale = (crossEnd - crossStart) / histogram.getMaxCount();
+        // Bars grow from the bottom edge, or from the left edge when vertical
+        path.reset();
+        moveTo(vertical, start, vertical ? crossStart : crossEnd);
+        for(int i = 0; i < bins; i++) {
+            float height = histogram.getCount(i) * scale;
+            float bar = vertical ? crossStart + height : crossEnd - height;
+            lineTo(vertical, start + i * binSize, bar);
+            lineTo(vertical, start + (i + 1) * binSize, bar);
+        }
+        lineTo(vertical, end, vertical ? crossStart : crossEnd);
+        path.close();
+    }
+
+    private void moveTo(boolean vertical, float main, float cross) {
+        if(vertical)
+            path.moveTo(cross, main);
+        else
+            path.moveTo(main, cross);
+    }
+
+    private void lineTo(boolean vertical, float main, float cross) {
+        if(vertical)
+            path.lineTo(cross, main);
+        else
+            path.lineTo(main, cross);
+    }
+
+}
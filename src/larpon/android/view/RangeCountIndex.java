@@ -0,0 +1,81 @@
+package larpon.android.view;
+
+import java.util.Arrays;
+
+/**
+ * Sorted copy of a data set that counts the values between two bounds in O(log n).
+ *
+ * Built once off the UI thread, it lets a {@link RangeSeekBar} report how many
+ * items fall in the selected range on every move without scanning the data.
+ */
+final class RangeCountIndex {
+
+    private final double[] sorted;
+
+    /**
+     * Sorts data in place and keeps it - O(n log n), so don't call it on the UI thread.
+     */
+    RangeCountIndex(double[] data) {
+        sorted = data;
+        // NaN sorts last and is never counted
+        Arrays.sort(sorted);
+    }
+
+    int size() {
+        return sorted.length;
+    }
+
+    /**
+     * @return the number of values v with low <= v <= high
+     */
+    int count(double low, double high) {
+        if(!(low <= high))
+            return 0;
+        return upperBound(high, false) - lowerBound(low, false);
+    }
+
+    /**
+     * Count against float bounds, comparing each value as the float nearest to it.
+     * A thumb at 0.1f then counts a value of 0.1 although (double) 0.1f is above 0.1.
+     *
+     * @return the number of values v with low <= (float) v <= high
+     */
+    int count(float low, float high) {
+        if(!(low <= high))
+            return 0;
+        return upperBound(high, true) - lowerBound(low, true);
+    }
+
+    /**
+     * @return the index of the first value >= x
+     */
+    private int lowerBound(double x, boolean asFloat) {
+        int lo = 0, hi = sorted.length;
+        while(lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            double v = asFloat ? (float) sorted[mid] : sorted[mid];
+            if(v < x)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * @return the index of the first value > x, NaN counting as above everything
+     */
+    private int upperBound(double x, boolean asFloat) {
+        int lo = 0, hi = sorted.length;
+        while(lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            double v = asFloat ? (float) sorted[mid] : sorted[mid];
+            if(v <= x)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+}
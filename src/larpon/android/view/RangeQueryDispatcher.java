@@ -0,0 +1,246 @@
+package larpon.android.view;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a query for the thumb values of a {@link RangeSeekBar} off the UI thread
+ * while the user seeks, and only ever delivers the result for the latest values.
+ *
+ * Set it as the bar's listener. Every seek callback supersedes the query before it:
+ * queries that haven't started are skipped, the running one is cancelled and its
+ * result dropped. Seeks within the debounce interval are folded into one query,
+ * except onSeekStop, which queries right away. Results and errors are delivered
+ * on the main thread. Callbacks are passed on to a wrapped listener if one is set.
+ *
+ * @param <R> the result type of the query
+ */
+public class RangeQueryDispatcher<R> implements RangeSeekBar.RangeSeekBarListener {
+
+    public interface Query<R> {
+        /**
+         * Called on a background thread. Long running queries should check
+         * Thread.interrupted() if the dispatcher interrupts superseded queries.
+         *
+         * @param values the thumb values, one per thumb
+         */
+        R run(float[] values) throws Exception;
+    }
+
+    public interface Callback<R> {
+        void onResult(float[] values, R result);
+        void onError(float[] values, Exception error);
+    }
+
+    private final Query<R> query;
+    private final Callback<R> callback;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    // Bumped for every new request. Work for an older generation is stale
+    private final AtomicInteger generation = new AtomicInteger();
+    private Future<?> inFlight;
+
+    private RangeSeekBar.RangeSeekBarListener listener;
+    private long debounceMillis;
+    private boolean interruptInFlight = true;
+    private float[] pendingValues;
+
+    /**
+     * Run queries on a thread of the dispatcher's own. It holds at most one
+     * waiting query and is stopped by {@link #shutdown()}.
+     */
+    public RangeQueryDispatcher(Query<R> query, Callback<R> callback) {
+        this(query, callback, newLatestWinsExecutor(), true);
+    }
+
+    /**
+     * Run queries on a given executor, which is not shut down by {@link #shutdown()}.
+     */
+    public RangeQueryDispatcher(Query<R> query, Callback<R> callback, ExecutorService executor) {
+        this(query, callback, executor, false);
+    }
+
+    private RangeQueryDispatcher(Query<R> query, Callback<R> callback, ExecutorService executor, boolean ownsExecutor) {
+        this.query = query;
+        this.callback = callback;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    /**
+     * One thread and a queue of one, where a new query pushes out the waiting one.
+     */
+    private static ExecutorService newLatestWinsExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(1), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "RangeSeekBar query");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }, new ThreadPoolExecutor.DiscardOldestPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Fold seeks less than debounceMillis apart into one query. 0, the default, queries on every seek.
+     */
+    public void setDebounce(long debounceMillis) {
+        this.debounceMillis = debounceMillis;
+    }
+
+    public long getDebounce() {
+        return debounceMillis;
+    }
+
+    /**
+     * Interrupt the thread of a running query when it is superseded. On by default.
+     */
+    public void setInterruptInFlight(boolean interruptInFlight) {
+        this.interruptInFlight = interruptInFlight;
+    }
+
+    public boolean isInterruptInFlight() {
+        return interruptInFlight;
+    }
+
+    /**
+     * @param listener gets every callback before the dispatcher acts on it
+     */
+    public void setListener(RangeSeekBar.RangeSeekBarListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void onCreate(RangeSeekBar rangeSeekBar, int index, float value) {
+        if(listener != null)
+            listener.onCreate(rangeSeekBar, index, value);
+        request(rangeSeekBar, false);
+    }
+
+    @Override
+    public void onSeek(RangeSeekBar rangeSeekBar, int index, float value) {
+        if(listener != null)
+            listener.onSeek(rangeSeekBar, index, value);
+        request(rangeSeekBar, false);
+    }
+
+    @Override
+    public void onSeekStart(RangeSeekBar rangeSeekBar, int index, float value) {
+        if(listener != null)
+            listener.onSeekStart(rangeSeekBar, index, value);
+    }
+
+    @Override
+    public void onSeekStop(RangeSeekBar rangeSeekBar, int index, float value) {
+        if(listener != null)
+            listener.onSeekStop(rangeSeekBar, index, value);
+        request(rangeSeekBar, true);
+    }
+
+    /**
+     * Query for the current values of a bar, superseding any earlier query.
+     *
+     * @param now skip the debounce interval
+     */
+    public void request(RangeSeekBar rangeSeekBar, boolean now) {
+        float[] values = rangeSeekBar.getThumbValues(new float[rangeSeekBar.getThumbCount()]);
+        generation.incrementAndGet();
+        handler.removeCallbacks(dispatchPending);
+        if(now || debounceMillis <= 0)
+            dispatch(values);
+        else {
+            pendingValues = values;
+            handler.postDelayed(dispatchPending, debounceMillis);
+        }
+    }
+
+    private final Runnable dispatchPending = new Runnable() {
+        @Override
+        public void run() {
+            float[] values = pendingValues;
+            pendingValues = null;
+            if(values != null)
+                dispatch(values);
+        }
+    };
+
+    private void dispatch(final float[] values) {
+        pendingValues = null;
+        if(inFlight != null)
+            inFlight.cancel(interruptInFlight);
+        final int requested = generation.get();
+        try {
+            inFlight = executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    // Superseded while waiting
+                    if(requested != generation.get())
+                        return;
+                    R result = null;
+                    Exception error = null;
+                    try {
+                        result = query.run(values);
+                    } catch(Exception e) {
+                        error = e;
+                    }
+                    deliver(requested, values, result, error);
+                }
+            });
+        } catch(RejectedExecutionException e) {
+            // Shut down
+            inFlight = null;
+        }
+    }
+
+    private void deliver(final int requested, final float[] values, final R result, final Exception error) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if(requested != generation.get())
+                    return;
+                inFlight = null;
+                if(error != null)
+                    callback.onError(values, error);
+                else
+                    callback.onResult(values, result);
+            }
+        });
+    }
+
+    /**
+     * Drop the pending query, cancel the running one and discard any result not yet delivered.
+     */
+    public void cancel() {
+        generation.incrementAndGet();
+        handler.removeCallbacks(dispatchPending);
+        pendingValues = null;
+        if(inFlight != null) {
+            inFlight.cancel(interruptInFlight);
+            inFlight = null;
+        }
+    }
+
+    /**
+     * Cancel all work and stop the dispatcher's own thread. Requests after this are ignored.
+     */
+    public void shutdown() {
+        cancel();
+        if(ownsExecutor)
+            executor.shutdownNow();
+    }
+
+}
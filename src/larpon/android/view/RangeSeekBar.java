@@ -1,30 +1,33 @@
 package larpon.android.view;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.content.res.Resources;
 import android.content.res.TypedArray;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 import android.os.Build;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.os.SystemClock;
+import android.os.Trace;
 import android.util.AttributeSet;
-import android.util.Log;
+import android.view.Choreographer;
 import android.view.MotionEvent;
 import android.view.View;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Locale;
-import java.util.Map;
-import java.util.Map.Entry;
 
 public class RangeSeekBar extends View {
 
-    private static final String TAG = "RangeSeekBar";
+    private static final String SECTION_DRAW = "RangeSeekBar draw";
+    private static final String SECTION_GUTTER = "RangeSeekBar gutter";
+    private static final String SECTION_HISTOGRAM = "RangeSeekBar histogram";
+    private static final String SECTION_RANGE = "RangeSeekBar range";
+    private static final String SECTION_THUMBS = "RangeSeekBar thumbs";
+    private static final String SECTION_TOUCH = "RangeSeekBar touch";
+    private static final String SECTION_LISTENER = "RangeSeekBar listener";
     
     public static final int HORIZONTAL = 0;
     public static final int VERTICAL = 1;
@@ -33,20 +36,51 @@ public class RangeSeekBar extends View {
     private static final int DEFAULT_THUMB_WIDTH = 50;
     private static final int DEFAULT_THUMB_HEIGHT = 50;
     private static final float DEFAULT_STEP = 5.0f;
+    // Fallback frame interval for seek coalescing below API 16
+    private static final long FRAME_DELAY = 16;
+
+    // Shared so setting thumb states doesn't allocate while seeking
+    private static final int[] STATE_PRESSED = new int[] { android.R.attr.state_window_focused, android.R.attr.state_pressed };
+    private static final int[] STATE_DEFAULT = new int[] { };
     
     private RangeSeekBarListener listener;
     
-    private List<Thumb> thumbs;
+    // Thumb values, positions, scale and seek state live in the model, which
+    // also owns thumbIndex and mapping. The view keeps what it needs to draw
+    // in parallel arrays indexed by thumb. Thumb objects are only views over an index.
+    private SeekModel model;
+    private int thumbCount;
+    private Drawable[] thumbDrawables;
+    private int[] thumbBoundsGenerations;
+    private Thumb[] thumbViews;
+    private ThumbIndex thumbIndex;
+
+    // In shared thumb drawable mode idle thumbs are drawn with one drawable and
+    // only the pressed thumb gets a stateful copy. thumbDrawables then only holds
+    // drawables set on a single thumb through Thumb.setDrawable().
+    private boolean sharedThumbDrawable;
+    private Drawable sharedThumb;
+    private Drawable pressedThumb;
+    private int customThumbDrawables;
+    private int pressedThumbIndex = -1;
     private float thumbWidth;
     private float thumbHeight;
     private float thumbHalf;
-    private float pixelRangeMin;
-    private float pixelRangeMax;
     private int orientation;
-    private boolean limitThumbRange;
-    private float scaleRangeMin;
-    private float scaleRangeMax;
-    private float scaleStep;
+    private ScaleMapping mapping;
+
+    // Created when histogram data is first set
+    private HistogramOverlay histogram;
+    // The float scale as a mapper to bin the histogram on, kept until the scale range changes
+    private ScaleMapper linearScale;
+    private float linearScaleMin;
+    private float linearScaleMax;
+
+    // Built in the background from the data set with setRangeCountData()
+    private RangeCountIndex rangeCountIndex;
+    private int rangeCountGeneration;
+    private RangeCountListener rangeCountListener;
+    private int lastRangeCount = -1;
     
     private Drawable trackDrawable;
     private Drawable rangeDrawable;
@@ -54,31 +88,98 @@ public class RangeSeekBar extends View {
     
     private boolean firstRun;
     private boolean isSeeking;
+
+    // Instrumentation, see setTracer(). tracing is set if either is on
+    private Tracer tracer;
+    private boolean traceSections;
+    private boolean tracing;
+
+    // Restored thumb state waiting for the first layout
+    private float[] restoredValues;
+    private int[] restoredSteps;
+
+    // Cached draw bounds. A thumb's bounds are current when its
+    // boundsGeneration matches ours - see invalidateBounds()
+    private int boundsGeneration;
+    private boolean trackBoundsValid;
+    private boolean rangeBoundsValid;
+    private int rangeLow;
+    private int rangeHigh;
+
+    // The track only changes on resize, drawable swap or state change,
+    // so it is rendered once into a bitmap and blitted on every frame
+    private boolean trackCacheEnabled = true;
+    private Bitmap trackCache;
+    private Canvas trackCacheCanvas;
+
+    // Thumb culling and clustering
+    private final Rect clipBounds = new Rect();
+    private float thumbClusterThreshold;
+    private Drawable thumbClusterDrawable;
     
+    private static boolean defaultDrawableCache = true;
+
+    /**
+     * Share the default drawables of all bars through a process-wide cache of
+     * constant states, keyed by theme and configuration. Only affects bars
+     * created afterwards. On by default.
+     */
+    public static void setDefaultDrawableCacheEnabled(boolean enabled) {
+        defaultDrawableCache = enabled;
+        if(!enabled)
+            DefaultDrawables.clear();
+    }
+
+    public static boolean isDefaultDrawableCacheEnabled() {
+        return defaultDrawableCache;
+    }
+
+    /**
+     * Like s.toLowerCase().contains(part) for a lower case part, without allocating.
+     */
+    private static boolean containsIgnoreCase(String s, String part) {
+        for(int i = 0; i + part.length() <= s.length(); i++) {
+            if(s.regionMatches(true, i, part, 0, part.length()))
+                return true;
+        }
+        return false;
+    }
+
     private void initDefaults() {
         orientation = HORIZONTAL;
-        limitThumbRange = true;
-        scaleRangeMin = 0;
-        scaleRangeMax = 100;
-        scaleStep = DEFAULT_STEP;
+        mapping = new ScaleMapping(0, 100, DEFAULT_STEP);
+        model = new SeekModel(mapping);
+        model.setListener(thumbMoveListener);
         
         thumbWidth = DEFAULT_THUMB_WIDTH;
         thumbHeight = DEFAULT_THUMB_HEIGHT;
 
-        thumbs = new ArrayList<Thumb>();
+        thumbDrawables = new Drawable[0];
+        thumbBoundsGenerations = new int[0];
+        thumbViews = new Thumb[0];
+        thumbIndex = model.getThumbIndex();
         
         this.setFocusable(true);
         this.setFocusableInTouchMode(true);
 
+        Resources resources = getResources();
+        DefaultDrawables defaults = defaultDrawableCache ? DefaultDrawables.get(getContext()) : null;
         if(this.getBackground() == null) {
+            Drawable background = (defaults != null) ? defaults.newBackground(resources) : resources.getDrawable(R.drawable.rangeseekbar);
             if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN)
-                this.setBackgroundDrawable(getResources().getDrawable(R.drawable.rangeseekbar));
+                this.setBackgroundDrawable(background);
             else
-                this.setBackground(getResources().getDrawable(R.drawable.rangeseekbar));
+                this.setBackground(background);
+        }
+        if(defaults != null) {
+            thumbDrawable = defaults.newThumb(resources);
+            rangeDrawable = defaults.newRange(resources);
+            trackDrawable = defaults.newTrack(resources);
+        } else {
+            thumbDrawable = resources.getDrawable(R.drawable.thumb);
+            rangeDrawable = resources.getDrawable(R.drawable.rangegradient);
+            trackDrawable = resources.getDrawable(R.drawable.trackgradient);
         }
-        thumbDrawable = getResources().getDrawable(R.drawable.thumb);
-        rangeDrawable = getResources().getDrawable(R.drawable.rangegradient);
-        trackDrawable = getResources().getDrawable(R.drawable.trackgradient);
         
         firstRun = true;
         isSeeking = false;
@@ -109,13 +210,15 @@ public class RangeSeekBar extends View {
         
         String s = a.getString(R.styleable.RangeSeekBar_orientation);
         if(s != null)
-            orientation = s.toLowerCase(Locale.ENGLISH).contains("vertical") ? VERTICAL : HORIZONTAL;
+            orientation = containsIgnoreCase(s, "vertical") ? VERTICAL : HORIZONTAL;
         
-        limitThumbRange = a.getBoolean(R.styleable.RangeSeekBar_limitThumbRange, true);
+        model.setLimitThumbRange(a.getBoolean(R.styleable.RangeSeekBar_limitThumbRange, true));
+        sharedThumbDrawable = a.getBoolean(R.styleable.RangeSeekBar_sharedThumbDrawable, false);
         
-        scaleRangeMin = a.getFloat(R.styleable.RangeSeekBar_scaleMin, 0);
-        scaleRangeMax = a.getFloat(R.styleable.RangeSeekBar_scaleMax, 100);
-        scaleStep = Math.abs(a.getFloat(R.styleable.RangeSeekBar_scaleStep, DEFAULT_STEP));
+        mapping.setScaleRange(
+                a.getFloat(R.styleable.RangeSeekBar_scaleMin, 0),
+                a.getFloat(R.styleable.RangeSeekBar_scaleMax, 100),
+                Math.abs(a.getFloat(R.styleable.RangeSeekBar_scaleStep, DEFAULT_STEP)));
         
         Drawable aThumb = a.getDrawable(R.styleable.RangeSeekBar_thumbDrawable);
         if(aThumb != null)
@@ -156,19 +259,35 @@ public class RangeSeekBar extends View {
     @Override
     protected void onSizeChanged(int viewWidth, int viewHeight, int oldw, int oldh)
     {
-        thumbHalf = (orientation == VERTICAL) ? (thumbHeight/2) : (thumbWidth/2);
-        pixelRangeMin = 0 + thumbHalf;
-        pixelRangeMax = (orientation == VERTICAL) ? viewHeight : viewWidth;
-        pixelRangeMax -= thumbHalf;
+        updatePixelRange(viewWidth, viewHeight);
         
         if(firstRun) {
-            distributeThumbsEvenly();
+            if(restoredValues != null)
+                applyRestoredState();
+            else
+                distributeThumbsEvenly();
             // Fire listener callback
-            if(listener != null)
-                listener.onCreate(this, currentThumbIndex, getThumbAt(currentThumbIndex).getValue());
+            int current = model.getCurrentIndex();
+            notifyListener(CALLBACK_CREATE, current, model.getValue(current));
             firstRun = false;
+        } else {
+            // Thumbs keep their values on the new track
+            model.remap(model.getStepScale());
         }
     }
+
+    /**
+     * Recompute thumbHalf and the pixel range from the orientation and thumb size.
+     */
+    private void updatePixelRange(int viewWidth, int viewHeight) {
+        thumbHalf = (orientation == VERTICAL) ? (thumbHeight/2) : (thumbWidth/2);
+        float pixelRangeMin = 0 + thumbHalf;
+        float pixelRangeMax = (orientation == VERTICAL) ? viewHeight : viewWidth;
+        pixelRangeMax -= thumbHalf;
+        model.setPixelRange(pixelRangeMin, pixelRangeMax);
+        rebinHistogram();
+        invalidateBounds();
+    }
     
     /**
      * {@inheritDoc}
@@ -177,86 +296,127 @@ public class RangeSeekBar extends View {
     @Override
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);    // 1. Make sure parent view get to draw it's components
+        if(tracing) {
+            drawTraced(canvas);
+            return;
+        }
         
         drawGutter(canvas);        // 2. Draw slider gutter
-        drawRange(canvas);        // 3. Draw range in gutter
-        drawThumbs(canvas);        // 4. Draw thumbs
+        drawHistogram(canvas);    // 3. Draw data density in gutter
+        drawRange(canvas);        // 4. Draw range in gutter
+        drawThumbs(canvas);        // 5. Draw thumbs
         
     }
     
-    private int currentThumbIndex = 0;
-    private Thumb currentThumb = null;
-    private float lowLimit = pixelRangeMin;
-    private float highLimit = pixelRangeMax;
+    /**
+     * onDraw() with every phase timed and in a trace section of its own.
+     */
+    private void drawTraced(Canvas canvas) {
+        beginSection(SECTION_DRAW);
+        long start = System.nanoTime();
+        beginSection(SECTION_GUTTER);
+        drawGutter(canvas);
+        endSection();
+        long gutter = System.nanoTime();
+        beginSection(SECTION_HISTOGRAM);
+        drawHistogram(canvas);
+        endSection();
+        long histogram = System.nanoTime();
+        beginSection(SECTION_RANGE);
+        drawRange(canvas);
+        endSection();
+        long range = System.nanoTime();
+        beginSection(SECTION_THUMBS);
+        drawThumbs(canvas);
+        endSection();
+        long thumbs = System.nanoTime();
+        endSection();
+        if(tracer != null)
+            tracer.onDraw(this, thumbCount, gutter - start, histogram - gutter, range - histogram, thumbs - range);
+    }
+
+    private boolean coalesceSeekEvents;
+    private boolean seekPending;
+    private boolean seekDispatchScheduled;
+    private SeekFrameCallback seekFrameCallback;
 
     /**
      *  {@inheritDoc}
      */
     @Override
     public boolean onTouchEvent (MotionEvent event) {
+        if(!tracing)
+            return handleTouchEvent(event);
+        beginSection(SECTION_TOUCH);
+        long start = System.nanoTime();
+        boolean handled = handleTouchEvent(event);
+        long duration = System.nanoTime() - start;
+        endSection();
+        if(tracer != null)
+            tracer.onTouch(this, event.getAction(), SystemClock.uptimeMillis() - event.getEventTime(), duration);
+        return handled;
+    }
+
+    private boolean handleTouchEvent(MotionEvent event) {
         super.onTouchEvent(event);
 
         if(!isEnabled())
             return false;
 
-        if(!thumbs.isEmpty()) {
+        if(thumbCount > 0) {
 
             float coordinate = (orientation == VERTICAL) ? event.getY() : event.getX();
             int action = event.getAction();
             
             // Find thumb closest to event coordinate on screen touch
             if(action == MotionEvent.ACTION_DOWN) {
-                currentThumbIndex = getClosestThumbIndex(coordinate);
-                currentThumb = getThumbAt(currentThumbIndex);
-
-                Log.d(TAG,"Closest thumb index "+ currentThumbIndex);
-                lowLimit = getLowerThumbRangeLimit(currentThumbIndex);
-                highLimit = getHigherThumbRangeLimit(currentThumbIndex);
+                pressedThumbIndex = model.press(coordinate);
 
-                int[] state = new int[] { android.R.attr.state_window_focused, android.R.attr.state_pressed };
-                currentThumb.getDrawable().setState(state);
+                Drawable pressed = getThumbDrawableAt(pressedThumbIndex);
+                if(pressed != null)
+                    pressed.setState(STATE_PRESSED);
+                // Thumb drawables have no callback, so redraw the state change ourselves
+                invalidateThumb(pressedThumbIndex);
             }
             
-            if(action == MotionEvent.ACTION_CANCEL || action == MotionEvent.ACTION_UP) {
-                int[] state = new int[] { };
-                currentThumb.getDrawable().setState(state);
+            if((action == MotionEvent.ACTION_CANCEL || action == MotionEvent.ACTION_UP) && pressedThumbIndex >= 0) {
+                Drawable pressed = getThumbDrawableAt(pressedThumbIndex);
+                if(pressed != null)
+                    pressed.setState(STATE_DEFAULT);
+                invalidateThumb(pressedThumbIndex);
+                pressedThumbIndex = -1;
             }
-                
-            // Update thumb position
-            // Make sure we stay in our tracks's bounds or limited by other thumbs
-            if(coordinate < lowLimit) {
-                if(lowLimit == highLimit && currentThumbIndex >= thumbs.size()-1) {
-                    currentThumbIndex = getUnstuckFrom(currentThumbIndex);
-                    currentThumb.setPosition(coordinate);
-                    lowLimit = getLowerThumbRangeLimit(currentThumbIndex);
-                    highLimit = getHigherThumbRangeLimit(currentThumbIndex);
-                } else
-                    currentThumb.setPosition(lowLimit);
-                //Log.d(TAG,"Setting low "+low);
-            } else if(coordinate > highLimit) {
-                currentThumb.setPosition(highLimit);
-                //Log.d(TAG,"Setting high "+high);
-            } else {
-                coordinate = asStep(coordinate);
-                currentThumb.setPosition(coordinate);
-                //Log.d(TAG,"Setting coordinate "+coordinate);
+
+            // Fold batched samples into this update so the limits see the whole path
+            if(action == MotionEvent.ACTION_MOVE) {
+                int history = event.getHistorySize();
+                for(int h = 0; h < history; h++)
+                    model.seekTo((orientation == VERTICAL) ? event.getHistoricalY(h) : event.getHistoricalX(h));
             }
+            model.seekTo(coordinate);
 
-            float thumbValue = currentThumb.getValue();
+            int currentThumbIndex = model.getCurrentIndex();
+            float thumbValue = model.getValue(currentThumbIndex);
             
             // Fire listener callbacks
             if(listener != null) {
                 
                 // Find thumb closest to event coordinate on screen touch
                 if(action == MotionEvent.ACTION_DOWN) {
-                    listener.onSeekStart(this, currentThumbIndex, thumbValue);
+                    dispatchPendingSeek();
+                    notifyListener(CALLBACK_SEEK_START, currentThumbIndex, thumbValue);
                     isSeeking = true;
                 } else if(action == MotionEvent.ACTION_CANCEL || action == MotionEvent.ACTION_UP) {
-                    listener.onSeekStop(this, currentThumbIndex, thumbValue);
+                    dispatchPendingSeek();
+                    notifyListener(CALLBACK_SEEK_STOP, currentThumbIndex, thumbValue);
                     isSeeking = false;
+                } else if(coalesceSeekEvents) {
+                    seekPending = true;
+                    scheduleSeekDispatch();
                 } else
-                    listener.onSeek(this, currentThumbIndex, thumbValue);
+                    notifyListener(CALLBACK_SEEK, currentThumbIndex, thumbValue);
             }
+            dispatchRangeCount();
             // Tell the view we want a complete redraw
             //invalidate();
             
@@ -265,104 +425,114 @@ public class RangeSeekBar extends View {
         }
         return false;
     }
-    
-    private int getUnstuckFrom(int index) {
-        int unstuck = 0;
-        float lastVal = getThumbAt(index).getValue();
-        for(int i = index-1; i >= 0; i--) {
-            Thumb thumb = getThumbAt(i);
-            if(thumb.getValue() != lastVal)
-                return i+1;
-        }
-        return unstuck;
+
+    /**
+     * Deliver at most one onSeek per frame instead of one per touch event.
+     * The listener always gets the latest value, onSeekStart and onSeekStop are
+     * never dropped and a pending onSeek is always delivered before onSeekStop.
+     * Frames are taken from {@link android.view.Choreographer} on API 16 and up.
+     * Off by default.
+     */
+    public void setCoalesceSeekEvents(boolean coalesceSeekEvents) {
+        this.coalesceSeekEvents = coalesceSeekEvents;
+        if(!coalesceSeekEvents)
+            dispatchPendingSeek();
     }
-    
-    private float asStep(float pixelValue) {
-        return stepScaleToPixel(pixelToStep(pixelValue));
+
+    public boolean isCoalesceSeekEvents() {
+        return coalesceSeekEvents;
     }
-    
-    private float pixelToScale(float pixelValue) {
-        float pixelRange = (pixelRangeMax - pixelRangeMin);
-        float scaleRange = (scaleRangeMax - scaleRangeMin);
-        float scaleValue = (((pixelValue - pixelRangeMin) * scaleRange) / pixelRange) + scaleRangeMin;
-        return scaleValue;
+
+    private void scheduleSeekDispatch() {
+        if(seekDispatchScheduled)
+            return;
+        seekDispatchScheduled = true;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            if(seekFrameCallback == null)
+                seekFrameCallback = new SeekFrameCallback(this);
+            seekFrameCallback.post();
+        } else
+            postDelayed(seekDispatch, FRAME_DELAY);
     }
-    
-    private float scaleToPixel(float scaleValue) {
-        float pixelRange = (pixelRangeMax - pixelRangeMin);
-        float scaleRange = (scaleRangeMax - scaleRangeMin);
-        float pixelValue = (((scaleValue - scaleRangeMin) * pixelRange) / scaleRange) + pixelRangeMin;
-        return pixelValue;
+
+    private void cancelSeekDispatch() {
+        if(!seekDispatchScheduled)
+            return;
+        seekDispatchScheduled = false;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)
+            seekFrameCallback.cancel();
+        else
+            removeCallbacks(seekDispatch);
     }
-    
-    private float pixelToStep(float pixelValue) {
-        float stepScaleMin = 0;
-        float stepScaleMax = (float) Math.floor((scaleRangeMax-scaleRangeMin)/scaleStep);
-        float pixelRange = (pixelRangeMax - pixelRangeMin);
-        float stepScaleRange = (stepScaleMax - stepScaleMin);
-        float stepScaleValue = (((pixelValue - pixelRangeMin) * stepScaleRange) / pixelRange) + stepScaleMin;
-        //Log.d(TAG,"scaleVal: "+scaleValue+" smin: "+scaleMin+" smax: "+scaleMax);
-        return Math.round(stepScaleValue);
+
+    private void dispatchPendingSeek() {
+        cancelSeekDispatch();
+        if(!seekPending)
+            return;
+        seekPending = false;
+        int current = model.getCurrentIndex();
+        if(current < thumbCount)
+            notifyListener(CALLBACK_SEEK, current, model.getValue(current));
     }
-    
-    private float stepScaleToPixel(float stepScaleValue) {
-        float stepScaleMin = 0;
-        float stepScaleMax = (float) Math.floor((scaleRangeMax-scaleRangeMin)/scaleStep);
-        float pixelRange = (pixelRangeMax - pixelRangeMin);
-        float stepScaleRange = (stepScaleMax - stepScaleMin);
-        float pixelValue = (((stepScaleValue - stepScaleMin) * pixelRange) / stepScaleRange) + pixelRangeMin;
-        //Log.d(TAG,"pixelVal: "+pixelValue+" smin: "+scaleMin+" smax: "+scaleMax);
-        return pixelValue;
-    }
-
-    private float getLowerThumbRangeLimit(int index) {
-        float limit = pixelRangeMin; 
-        if(limitThumbRange && index < thumbs.size() && !thumbs.isEmpty()) {
-            Thumb thumb = getThumbAt(index);
-            for(int i = 0; i < thumbs.size(); i++) {
-                if(i < index) {
-                    Thumb tht = getThumbAt(i);
-                    if(tht.getPosition() <= thumb.getPosition() && tht.getPosition() > limit) {
-                        limit = tht.getPosition();
-                        //Log.d(TAG,"New low limit: "+limit+" i:"+i+" index: "+index);
-                    }
-                }
-            }
+
+    private final Runnable seekDispatch = new Runnable() {
+        @Override
+        public void run() {
+            seekDispatchScheduled = false;
+            dispatchPendingSeek();
         }
-        return limit;
-    }
+    };
 
-    private float getHigherThumbRangeLimit(int index) {
-        float limit = pixelRangeMax; 
-        if(limitThumbRange && index < thumbs.size() && !thumbs.isEmpty()) {
-            Thumb thumb = getThumbAt(index);
-            for(int i = 0; i < thumbs.size(); i++) {
-                if(i > index) {
-                    Thumb tht = getThumbAt(i);
-                    if(tht.getPosition() >= thumb.getPosition() && tht.getPosition() < limit) {
-                        limit = tht.getPosition();
-                        //Log.d(TAG,"New high limit: "+limit+" i:"+i+" index: "+index);
-                    }
-                }
-            }
+    /**
+     * Kept in its own class so Choreographer is only loaded on API 16 and up.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static final class SeekFrameCallback implements Choreographer.FrameCallback {
+        private final RangeSeekBar bar;
+
+        SeekFrameCallback(RangeSeekBar bar) {
+            this.bar = bar;
         }
-        return limit;
+
+        void post() {
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        void cancel() {
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            bar.seekDispatch.run();
+        }
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    @Override
+    protected void onDetachedFromWindow() {
+        cancelSeekDispatch();
+        // Don't deliver a stale onSeek before the next onSeekStart
+        seekPending = false;
+        // Rebuilt on the next draw if we're attached again
+        releaseTrackCache();
+        trackBoundsValid = false;
+        super.onDetachedFromWindow();
     }
     
     public void distributeThumbsEvenly() {
-        if(!thumbs.isEmpty()) {
-            int noThumbs = thumbs.size();
-            float even = pixelRangeMax/noThumbs;
-            float lastPos = even/2;
-            for(int i = 0; i < thumbs.size(); i++) {
-                getThumbAt(i).setPosition(asStep(lastPos));
-                //Log.d(TAG,"lp: "+lastPos);
-                lastPos += even;
-            }
-        }
+        model.distributeEvenly();
     }
 
-    public Thumb getThumbAt(int index) { return thumbs.get(index); }
+    public Thumb getThumbAt(int index) {
+        if(index >= thumbCount)
+            throw new IndexOutOfBoundsException("Thumb "+index+" of "+thumbCount);
+        if(thumbViews[index] == null)
+            thumbViews[index] = new Thumb(index);
+        return thumbViews[index];
+    }
 
     @Deprecated
     public float getThumbValue(int index) {
@@ -372,143 +542,572 @@ public class RangeSeekBar extends View {
     @Deprecated
     public void setThumbValue(int index, float value) {
         getThumbAt(index).setValue(value);
-        // Tell the view we want a complete redraw
-        invalidate();
     }
 
-    private int getClosestThumbIndex(float coordinate) {
-        int closest = 0;
-        if(!thumbs.isEmpty()) {
-            float shortestDistance = pixelRangeMax+thumbHalf+((orientation == VERTICAL) ? (getPaddingTop()+getPaddingBottom()) : (getPaddingLeft() + getPaddingRight()));
-            // Oldschool for-loop to have access to index
-            for(int i = 0; i < thumbs.size(); i++) {
-                // Find thumb closest to x coordinate
-                float tcoordinate = getThumbAt(i).getPosition();
-                float distance = Math.abs(coordinate-tcoordinate);
-                if(distance <= shortestDistance) {
-                    shortestDistance = distance;
-                    closest = i;
-                    //Log.d(TAG,"shDist: "+shortestDistance+" thumb i: "+closest);
-                }
-            }
+    private final SeekModel.Listener thumbMoveListener = new SeekModel.Listener() {
+        @Override
+        public void onThumbMoved(int index, float from, float to) {
+            thumbBoundsGenerations[index] = -1;
+            // Tell the view to redraw what the move touched
+            invalidateThumbMove(from, to);
         }
-        return closest;
-    }
+    };
 
-    private List<Integer> getClosestThumbsIndex(float coordinate, int amount) {
-        List<Integer> results = new ArrayList<Integer>();
-        if(!thumbs.isEmpty()) {
-            HashMap<Integer,Float> map = new HashMap<Integer,Float>();
-            for(int i = 0; i < thumbs.size() && results.size() <= amount; i++) {
-                // Find amount thumbs closest to x coordinate
-                float tcoordinate = getThumbAt(i).getPosition();
-                float distance = Math.abs(coordinate-tcoordinate);
-                map.put(i,distance);
-            }
-            Map<Integer,Float> sortedMap = sortByComparator(map, false);
-            Iterator it = sortedMap.entrySet().iterator();
-            while (it.hasNext() && results.size() <= amount) {
-                Map.Entry pair = (Map.Entry)it.next();
-                results.add((Integer) pair.getKey());
-                it.remove(); // avoids a ConcurrentModificationException
-            }
+    /**
+     * Set the values of all thumbs at once.
+     * Each value is clamped to the scale and snapped to the nearest step. The view is
+     * invalidated once and the listener gets a single onSeek for the current thumb.
+     * Before the first layout the values are kept for it instead of the even
+     * distribution, and the listener hears of them through onCreate.
+     *
+     * @param values one value per thumb
+     * @throws IllegalArgumentException if the number of values doesn't match the number of thumbs
+     */
+    public void setThumbValues(float[] values) {
+        if(values.length != thumbCount)
+            throw new IllegalArgumentException("Expected "+thumbCount+" values, got "+values.length);
+        if(thumbCount == 0)
+            return;
+        for(int i = 0; i < values.length; i++)
+            model.assignValue(i, values[i]);
+        if(firstRun) {
+            // There is no track to place them on yet, onSizeChanged() does it like for bind()
+            restoredValues = values.clone();
+            restoredSteps = new int[0];
+            return;
         }
-        return results;
+        invalidateThumbBounds();
+        invalidate();
+        // Fire listener callback
+        int current = model.getCurrentIndex();
+        notifyListener(CALLBACK_SEEK, current, model.getValue(current));
+        dispatchRangeCount();
     }
 
-    private static Map<Integer,Float> sortByComparator(Map<Integer,Float> unsortMap, final boolean order)
-    {
+    /**
+     * Copy the values of all thumbs into out.
+     *
+     * @param out receives one value per thumb - must hold at least getThumbCount() values
+     * @return out
+     */
+    public float[] getThumbValues(float[] out) {
+        return model.getValues(out);
+    }
 
-        List<Entry<Integer,Float>> list = new LinkedList<Entry<Integer,Float>>(unsortMap.entrySet());
+    /**
+     * Use an exact stepped scale over long or double values instead of the float scale.
+     * Each thumb then holds an integer step index and its float value is derived
+     * from that, so values never drift off their steps. Thumbs are moved to the
+     * steps nearest to their current values.
+     * Setting any of the float scale properties drops the step scale again.
+     *
+     * @param stepScale the scale, or null to go back to the float scale over the same range
+     */
+    public void setStepScale(StepScale stepScale) {
+        edit().setStepScale(stepScale).apply();
+    }
 
-        // Sorting the list based on values
-        Collections.sort(list, new Comparator<Entry<Integer,Float>>() {
-            public int compare(Entry<Integer,Float> o1,
-                               Entry<Integer,Float> o2) {
-                if (order) {
-                    return o1.getValue().compareTo(o2.getValue());
-                } else {
-                    return o2.getValue().compareTo(o1.getValue());
+    public StepScale getStepScale() {
+        return model.getStepScale();
+    }
 
-                }
-            }
-        });
+    /**
+     * Use a non-linear scale, e.g. {@link ScaleMapper.Log} for prices or file sizes.
+     * The mapper is sampled once per pixel of the track on layout and touches
+     * look their value up from that table. Values on a mapped scale are
+     * continuous - the scale step doesn't apply. Thumbs keep their values and
+     * move to where those are on the new scale.
+     * Setting a step scale or any of the float scale properties drops the mapper again.
+     *
+     * @param scaleMapper the mapper, or null to go back to the linear float scale
+     */
+    public void setScaleMapper(ScaleMapper scaleMapper) {
+        edit().setScaleMapper(scaleMapper).apply();
+    }
+
+    public ScaleMapper getScaleMapper() {
+        return model.getScaleMapper();
+    }
+
+    public int getThumbCount() {
+        return thumbCount;
+    }
+
+    /**
+     * Find the thumbs closest to a pixel coordinate along the bar.
+     * Nothing is allocated, so this is safe to call on every touch event.
+     *
+     * @param coordinate pixel coordinate along the bar
+     * @param k the maximum number of thumbs to find, none if not positive
+     * @param out receives the thumb indices, closest first
+     * @return the number of thumb indices written to out
+     */
+    public int getClosestThumbs(float coordinate, int k, int[] out) {
+        return thumbIndex.getClosestIndices(coordinate, k, out);
+    }
+
+    /**
+     * @return the number of thumbs stacked at the position of the thumb at index,
+     * itself included - 1 if no other thumb is there
+     */
+    public int getThumbGroupSize(int index) {
+        if(index >= thumbCount)
+            throw new IndexOutOfBoundsException("Thumb "+index+" of "+thumbCount);
+        return thumbIndex.getGroupEnd(index) - thumbIndex.getGroupStart(index);
+    }
 
-        // Maintaining insertion order with the help of LinkedList
-        Map<Integer, Float> sortedMap = new LinkedHashMap<>();
-        for (Entry<Integer,Float> entry : list) sortedMap.put(entry.getKey(), entry.getValue());
+    /**
+     * Find the thumbs stacked at the position of a thumb.
+     *
+     * @param out receives the thumb indices, lowest first
+     * @return the number of thumb indices written to out
+     */
+    public int getThumbGroup(int index, int[] out) {
+        if(index >= thumbCount)
+            throw new IndexOutOfBoundsException("Thumb "+index+" of "+thumbCount);
+        int start = thumbIndex.getGroupStart(index);
+        int count = Math.min(thumbIndex.getGroupEnd(index) - start, out.length);
+        for(int i = 0; i < count; i++)
+            out[i] = thumbIndex.getIndexAt(start + i);
+        return count;
+    }
 
-        return sortedMap;
+    /**
+     * List the thumbs by position with stacked thumbs as one group, e.g. to draw
+     * a single badge per stack. Costs O(log n) per group, not per thumb.
+     *
+     * @param leaders receives the lowest thumb index of each group, in position order
+     * @param sizes receives the number of thumbs in each group, may be null
+     * @return the number of groups written
+     */
+    public int getThumbGroups(int[] leaders, int[] sizes) {
+        return thumbIndex.getGroups(leaders, sizes);
     }
     
+    /**
+     * Mark all cached draw bounds as stale.
+     * Called whenever size, padding, orientation, thumb size or a drawable changes.
+     */
+    private void invalidateBounds() {
+        boundsGeneration++;
+        rangeBoundsValid = false;
+        trackBoundsValid = false;
+        if(histogram != null)
+            histogram.invalidatePath();
+    }
+
+    /**
+     * Mark the cached bounds of all thumbs as stale after the model moved
+     * thumbs without reporting it. Track and range bounds are kept.
+     */
+    private void invalidateThumbBounds() {
+        boundsGeneration++;
+    }
+
+    /**
+     * Invalidate only the strip a thumb moving between two positions touches:
+     * the thumb at its old and new position and the range segment in between.
+     * With clustering on the whole view is invalidated.
+     */
+    private void invalidateThumbMove(float from, float to) {
+        if(from != to)
+            invalidateThumbStrip(from, to);
+    }
+
+    /**
+     * Invalidate a thumb where it is, e.g. when it is pressed or released.
+     */
+    private void invalidateThumb(int index) {
+        float position = thumbIndex.getPosition(index);
+        invalidateThumbStrip(position, position);
+    }
+
+    private void invalidateThumbStrip(float from, float to) {
+        if(thumbClusterThreshold > 0) {
+            // One thumb can change how all the clusters after it are split
+            invalidate();
+            return;
+        }
+        // The range is drawn without padding, thumbs are offset by it
+        int low = (int) Math.floor(Math.min(from, to) - thumbHalf);
+        int high;
+        if(orientation == VERTICAL) {
+            high = (int) Math.ceil(Math.max(from, to) + thumbHalf + getPaddingTop()) + 1;
+            invalidate(0, low, getWidth(), high);
+        } else {
+            high = (int) Math.ceil(Math.max(from, to) + thumbHalf + getPaddingLeft()) + 1;
+            invalidate(low, 0, high, getHeight());
+        }
+    }
+
     private void drawGutter(Canvas canvas) {
         if(trackDrawable != null) {
             //Log.d(TAG,"gutterbg: "+gutterBackground.toString());
-            int left, top, right, bottom;
-            left = getPaddingLeft();
-            top = getPaddingTop();
-            right = getWidth() - getPaddingRight();
-            bottom = getHeight() - getPaddingBottom();
-            trackDrawable.setBounds(left, top, right, bottom);
-            trackDrawable.draw(canvas);
+            boolean cache = trackCacheEnabled && getWidth() > 0 && getHeight() > 0;
+            if(!trackBoundsValid) {
+                int left, top, right, bottom;
+                left = getPaddingLeft();
+                top = getPaddingTop();
+                right = getWidth() - getPaddingRight();
+                bottom = getHeight() - getPaddingBottom();
+                trackDrawable.setBounds(left, top, right, bottom);
+                if(cache)
+                    renderTrackCache();
+                trackBoundsValid = true;
+            }
+            if(cache && trackCache != null)
+                canvas.drawBitmap(trackCache, 0, 0, null);
+            else
+                trackDrawable.draw(canvas);
+        }
+    }
+
+    private void renderTrackCache() {
+        int width = getWidth();
+        int height = getHeight();
+        if(trackCache == null || trackCache.getWidth() != width || trackCache.getHeight() != height) {
+            releaseTrackCache();
+            trackCache = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            if(trackCacheCanvas == null)
+                trackCacheCanvas = new Canvas();
+            trackCacheCanvas.setBitmap(trackCache);
+        } else
+            trackCache.eraseColor(0);
+        trackDrawable.draw(trackCacheCanvas);
+    }
+
+    /**
+     * Drop the cache without recycling it - a display list recorded earlier may
+     * still draw it, e.g. from a transition overlay after detach, so it is left to GC.
+     */
+    private void releaseTrackCache() {
+        if(trackCache != null) {
+            if(trackCacheCanvas != null)
+                trackCacheCanvas.setBitmap(null);
+            trackCache = null;
+        }
+    }
+
+    /**
+     * Render the track once into a bitmap and redraw it from there, instead of
+     * drawing trackDrawable on every frame. The cache is rebuilt on resize, padding
+     * or drawable changes and when the track drawable's state changes, so animated
+     * track drawables should turn it off. On by default.
+     */
+    public void setTrackCacheEnabled(boolean trackCacheEnabled) {
+        if(this.trackCacheEnabled == trackCacheEnabled)
+            return;
+        this.trackCacheEnabled = trackCacheEnabled;
+        if(!trackCacheEnabled)
+            releaseTrackCache();
+        trackBoundsValid = false;
+        invalidate();
+    }
+
+    public boolean isTrackCacheEnabled() {
+        return trackCacheEnabled;
+    }
+
+    private void drawHistogram(Canvas canvas) {
+        if(histogram == null)
+            return;
+        float pixelRangeMin = model.getPixelRangeMin();
+        float pixelRangeMax = model.getPixelRangeMax();
+        if(orientation == VERTICAL)
+            histogram.draw(canvas, true, pixelRangeMin, pixelRangeMax, getPaddingLeft(), getWidth() - getPaddingRight());
+        else
+            histogram.draw(canvas, false, pixelRangeMin, pixelRangeMax, getPaddingTop(), getHeight() - getPaddingBottom());
+    }
+
+    /**
+     * Show the density of a data set behind the range, binned at one bin per
+     * pixel of the track along the bar's scale. Binning runs on a background
+     * thread and is only redone when the size or scale of the bar changes.
+     * The array is used as is, don't modify it afterwards.
+     *
+     * @param samples the data, or null to remove the histogram
+     */
+    public void setHistogramData(double[] samples) {
+        if(samples == null)
+            histogram = null;
+        else {
+            if(histogram == null)
+                histogram = new HistogramOverlay(this);
+            histogram.setSamples(samples);
+            rebinHistogram();
         }
+        invalidate();
+    }
+
+    /**
+     * Add samples to the histogram. Only the new samples are binned and
+     * merged into the current counts.
+     */
+    public void appendHistogramData(double[] samples, int offset, int count) {
+        if(histogram == null) {
+            histogram = new HistogramOverlay(this);
+            histogram.appendSamples(samples, offset, count);
+            rebinHistogram();
+            invalidate();
+            return;
+        }
+        histogram.appendSamples(samples, offset, count);
+    }
+
+    public void setHistogramColor(int color) {
+        if(histogram == null) {
+            histogram = new HistogramOverlay(this);
+            rebinHistogram();
+        }
+        histogram.setColor(color);
+        invalidate();
+    }
+
+    /**
+     * Start binning the histogram for the current track and scale. Before the
+     * first layout there is no track yet and updatePixelRange() starts it.
+     */
+    private void rebinHistogram() {
+        if(histogram == null)
+            return;
+        histogram.invalidateBinning();
+        float pixelRangeMin = model.getPixelRangeMin();
+        float pixelRangeMax = model.getPixelRangeMax();
+        if(pixelRangeMax <= pixelRangeMin)
+            return;
+        ScaleMapper mapper = model.getScaleMapper();
+        if(mapper == null) {
+            float scaleRangeMin = mapping.getScaleRangeMin();
+            float scaleRangeMax = mapping.getScaleRangeMax();
+            if(linearScale == null || linearScaleMin != scaleRangeMin || linearScaleMax != scaleRangeMax) {
+                linearScale = new ScaleMapper.Linear(scaleRangeMin, scaleRangeMax);
+                linearScaleMin = scaleRangeMin;
+                linearScaleMax = scaleRangeMax;
+            }
+            mapper = linearScale;
+        }
+        histogram.rebin(mapper, pixelRangeMin, pixelRangeMax);
+        invalidate();
+    }
+
+    /**
+     * Count the items of a data set in the selected range while seeking, see
+     * {@link #getCountInRange()}. The data is copied and sorted once on a
+     * background thread, after which every count is a binary search.
+     *
+     * @param data the values of the items, or null to stop counting
+     */
+    public void setRangeCountData(double[] data) {
+        final int generation = ++rangeCountGeneration;
+        rangeCountIndex = null;
+        if(data == null) {
+            dispatchRangeCount();
+            return;
+        }
+        final double[] copy = data.clone();
+        BackgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final RangeCountIndex index = new RangeCountIndex(copy);
+                BackgroundExecutor.deliver(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Dropped if other data was set in the meantime
+                        if(generation != rangeCountGeneration)
+                            return;
+                        rangeCountIndex = index;
+                        dispatchRangeCount();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * The number of items of the range count data with a value between the lowest
+     * and the highest thumb, both included. With a single thumb the range starts
+     * at the start of the scale. Values on a step scale are compared exactly,
+     * otherwise as floats like the thumb values.
+     *
+     * @return the count, or -1 while no range count data is indexed
+     */
+    public int getCountInRange() {
+        if(rangeCountIndex == null || thumbCount == 0)
+            return -1;
+        int lowest = thumbIndex.getLowestIndex();
+        int highest = thumbIndex.getHighestIndex();
+        StepScale stepScale = model.getStepScale();
+        if(stepScale != null) {
+            int low = (thumbCount == 1) ? 0 : model.getStep(lowest);
+            return rangeCountIndex.count(stepScale.toDouble(low), stepScale.toDouble(model.getStep(highest)));
+        }
+        ScaleMapper scaleMapper = model.getScaleMapper();
+        float low = model.getValue(lowest);
+        if(thumbCount == 1)
+            low = (scaleMapper != null) ? scaleMapper.toValue(0) : mapping.getScaleRangeMin();
+        float high = model.getValue(highest);
+        // Scales may run from high to low
+        return rangeCountIndex.count(Math.min(low, high), Math.max(low, high));
+    }
+
+    /**
+     * Get told when the count in range changes through touch, setThumbValues()
+     * or new range count data.
+     */
+    public void setRangeCountListener(RangeCountListener rangeCountListener) {
+        this.rangeCountListener = rangeCountListener;
+        lastRangeCount = -1;
+    }
+
+    private void dispatchRangeCount() {
+        if(rangeCountListener == null)
+            return;
+        int count = getCountInRange();
+        if(count == lastRangeCount)
+            return;
+        lastRangeCount = count;
+        rangeCountListener.onRangeCountChanged(this, count);
     }
 
     private void drawRange(Canvas canvas) {
-        if(!thumbs.isEmpty()) {
-            Thumb lowThumb = thumbs.get(getClosestThumbIndex(0));
-            Thumb highThumb = thumbs.get(getClosestThumbIndex(pixelRangeMax));
-            
+        if(thumbCount > 0 && rangeDrawable != null) {
             // If we only have 1 thumb - choose to draw from 0 in scale
-            if(thumbs.size() == 1)
-                lowThumb = new Thumb(getThumbDrawable());
-            //Log.d(TAG,"l: "+lowThumb.pos+" h: "+highThumb.pos);
-            
-            if(rangeDrawable != null) {
+            int low = (thumbCount == 1) ? 0 : (int) thumbIndex.getPosition(thumbIndex.getLowestIndex());
+            int high = (int) thumbIndex.getPosition(thumbIndex.getHighestIndex());
+
+            if(!rangeBoundsValid || low != rangeLow || high != rangeHigh) {
                 int left, top, right, bottom;
                 
                 if(orientation == VERTICAL) {
                     left = getPaddingLeft();
-                    top = (int) lowThumb.position;
+                    top = low;
                     right = getMeasuredWidth() - getPaddingRight();
-                    bottom = (int) highThumb.position;
+                    bottom = high;
                 } else {
-                    left = (int) lowThumb.position;
+                    left = low;
                     top = getPaddingTop();
-                    right = (int) highThumb.position;
+                    right = high;
                     bottom = getMeasuredHeight() - getPaddingBottom();
                 }
                 rangeDrawable.setBounds(left, top, right, bottom);
-                rangeDrawable.draw(canvas);
+                rangeLow = low;
+                rangeHigh = high;
+                rangeBoundsValid = true;
             }
+            rangeDrawable.draw(canvas);
         }
     }
     
     private void drawThumbs(Canvas canvas) {
-        if(!thumbs.isEmpty()) {
-            for(Thumb thumb : thumbs) {
-                int left, top, right, bottom;
-                //Log.d(TAG,""+thumb.pos);
-                if(orientation == VERTICAL) {
-                    left = getPaddingLeft();
-                    top = (int) ((thumb.position - thumbHalf) + getPaddingTop());
-                    right = getMeasuredWidth() - getPaddingRight();
-                    bottom = (int) ((thumb.position + thumbHalf) + getPaddingTop());
-                    //Log.d(TAG,"thumb: "+thumb.pos);
-                } else {
-                    left = (int) ((thumb.position - thumbHalf) + getPaddingLeft());
-                    top = getPaddingTop();
-                    right = (int) ((thumb.position + thumbHalf) + getPaddingLeft());
-                    bottom = getMeasuredHeight() - getPaddingBottom();
-                    //Log.d(TAG,"thumb: "+thumbRectangle.toString());
-                }
-                
-                if(thumb.getDrawable() != null) {
-                    thumb.getDrawable().setBounds(left, top, right, bottom);
-                    thumb.getDrawable().draw(canvas);
+        if(thumbCount == 0 || !canvas.getClipBounds(clipBounds))
+            return;
+
+        // Only walk the thumbs that can reach into the clip, in position order
+        float padding = (orientation == VERTICAL) ? getPaddingTop() : getPaddingLeft();
+        float clipStart = ((orientation == VERTICAL) ? clipBounds.top : clipBounds.left) - padding - thumbHalf;
+        float clipEnd = ((orientation == VERTICAL) ? clipBounds.bottom : clipBounds.right) - padding + thumbHalf;
+
+        int rank = thumbIndex.lowerBound(clipStart);
+        while(rank < thumbCount) {
+            int i = thumbIndex.getIndexAt(rank);
+            float position = thumbIndex.getPosition(i);
+            if(position > clipEnd)
+                break;
+            rank++;
+            if(i == pressedThumbIndex)
+                continue;
+
+            // Collapse thumbs closer than the threshold into one glyph
+            int last = i;
+            int clustered = 1;
+            if(thumbClusterThreshold > 0) {
+                while(rank < thumbCount) {
+                    int next = thumbIndex.getIndexAt(rank);
+                    if(next == pressedThumbIndex) {
+                        rank++;
+                        continue;
+                    }
+                    if(thumbIndex.getPosition(next) - position >= thumbClusterThreshold)
+                        break;
+                    last = next;
+                    clustered++;
+                    rank++;
                 }
             }
+
+            if(clustered > 1 && thumbClusterDrawable != null) {
+                setThumbBounds(thumbClusterDrawable, (position + thumbIndex.getPosition(last)) / 2);
+                thumbClusterDrawable.draw(canvas);
+            } else
+                drawThumb(canvas, last);
+        }
+
+        // The pressed thumb is always drawn on its own and on top
+        if(pressedThumbIndex >= 0 && pressedThumbIndex < thumbCount)
+            drawThumb(canvas, pressedThumbIndex);
+    }
+
+    private void drawThumb(Canvas canvas, int i) {
+        Drawable drawable = thumbDrawables[i];
+        if(drawable == null) {
+            if(!sharedThumbDrawable)
+                return;
+            // Shared drawables move from thumb to thumb so their bounds can't be cached
+            drawable = (i == pressedThumbIndex) ? pressedThumb : sharedThumb;
+            if(drawable != null) {
+                setThumbBounds(drawable, thumbIndex.getPosition(i));
+                drawable.draw(canvas);
+            }
+            return;
         }
+
+        if(thumbBoundsGenerations[i] != boundsGeneration) {
+            setThumbBounds(drawable, thumbIndex.getPosition(i));
+            thumbBoundsGenerations[i] = boundsGeneration;
+        }
+        drawable.draw(canvas);
+    }
+
+    /**
+     * Draw thumbs that are closer to each other than threshold pixels as a single
+     * glyph. Without a cluster drawable the last thumb of a cluster stands in for
+     * it. Touches still pick a real thumb. 0 turns clustering off, which is the default.
+     */
+    public void setThumbClusterThreshold(float threshold) {
+        thumbClusterThreshold = threshold;
+        invalidate();
+    }
+
+    public float getThumbClusterThreshold() {
+        return thumbClusterThreshold;
+    }
+
+    public void setThumbClusterDrawable(Drawable drawable) {
+        thumbClusterDrawable = drawable;
+        invalidate();
+    }
+
+    public Drawable getThumbClusterDrawable() {
+        return thumbClusterDrawable;
+    }
+
+    private void setThumbBounds(Drawable drawable, float position) {
+        int left, top, right, bottom;
+        //Log.d(TAG,""+position);
+        if(orientation == VERTICAL) {
+            left = getPaddingLeft();
+            top = (int) ((position - thumbHalf) + getPaddingTop());
+            right = getMeasuredWidth() - getPaddingRight();
+            bottom = (int) ((position + thumbHalf) + getPaddingTop());
+            //Log.d(TAG,"thumb: "+thumb.pos);
+        } else {
+            left = (int) ((position - thumbHalf) + getPaddingLeft());
+            top = getPaddingTop();
+            right = (int) ((position + thumbHalf) + getPaddingLeft());
+            bottom = getMeasuredHeight() - getPaddingBottom();
+            //Log.d(TAG,"thumb: "+thumbRectangle.toString());
+        }
+        drawable.setBounds(left, top, right, bottom);
     }
     
 
@@ -581,48 +1180,100 @@ public class RangeSeekBar extends View {
         return result;
     }
     
+    /**
+     * A view over the state of the thumb at one index.
+     */
     public class Thumb {
-        private float value;
-        private float position;
-        private Drawable drawable;
+        private final int index;
 
-        public Thumb(Drawable drawable) {
-            value = 0;
-            position = 0;
-            // Clone the drawable so we can set the states individually
-            this.drawable = drawable.getConstantState().newDrawable();
+        private Thumb(int index) {
+            this.index = index;
+        }
+
+        public int getIndex() {
+            return index;
         }
 
+        /**
+         * In shared thumb drawable mode this is the drawable shared by all idle
+         * thumbs unless one was set on this thumb.
+         */
         public Drawable getDrawable() {
-            return drawable;
+            return getThumbDrawableAt(index);
         }
 
         public void setDrawable(Drawable drawable) {
-            this.drawable = drawable;
+            if(sharedThumbDrawable) {
+                if(thumbDrawables[index] == null && drawable != null)
+                    customThumbDrawables++;
+                else if(thumbDrawables[index] != null && drawable == null)
+                    customThumbDrawables--;
+            }
+            thumbDrawables[index] = drawable;
+            thumbBoundsGenerations[index] = -1;
         }
 
         public float getPosition() {
-            return position;
+            return thumbIndex.getPosition(index);
         }
 
         public void setPosition(float position) {
-            this.position = position;
-            // Update value based on new position
-            this.value = pixelToScale(position);
-            // Tell the view we want a complete redraw
-            invalidate();
+            model.setPosition(index, position);
         }
 
         public float getValue() {
-            return value;
+            return model.getValue(index);
         }
 
         public void setValue(float value) {
-            this.value = value;
-            // Update position based on new value
-            this.position = scaleToPixel(value);
-            // Tell the view we want a complete redraw
-            invalidate();
+            model.moveToValue(index, value);
+        }
+
+        /**
+         * @return the step index of the thumb on the step scale, or on the
+         * float scale if no step scale is set
+         */
+        public int getStep() {
+            return model.getStep(index);
+        }
+
+        /**
+         * @throws IllegalStateException if no step scale is set
+         */
+        public void setStep(int step) {
+            if(model.getStepScale() == null)
+                throw new IllegalStateException("No step scale set");
+            model.moveStep(index, step);
+        }
+
+        public long getLongValue() {
+            StepScale stepScale = model.getStepScale();
+            if(stepScale != null)
+                return stepScale.toLong(model.getStep(index));
+            return Math.round((double) model.getValue(index));
+        }
+
+        public void setLongValue(long value) {
+            StepScale stepScale = model.getStepScale();
+            if(stepScale != null)
+                model.moveStep(index, stepScale.stepOf(value));
+            else
+                setValue(value);
+        }
+
+        public double getDoubleValue() {
+            StepScale stepScale = model.getStepScale();
+            if(stepScale != null)
+                return stepScale.toDouble(model.getStep(index));
+            return model.getValue(index);
+        }
+
+        public void setDoubleValue(double value) {
+            StepScale stepScale = model.getStepScale();
+            if(stepScale != null)
+                model.moveStep(index, stepScale.stepOf(value));
+            else
+                setValue((float) value);
         }
 
     }
@@ -634,6 +1285,123 @@ public class RangeSeekBar extends View {
         void onSeekStop(RangeSeekBar rangeSeekBar, int index, float value);
     }
     
+    public static final int CALLBACK_CREATE = 0;
+    public static final int CALLBACK_SEEK = 1;
+    public static final int CALLBACK_SEEK_START = 2;
+    public static final int CALLBACK_SEEK_STOP = 3;
+
+    private void notifyListener(int callback, int index, float value) {
+        if(listener == null)
+            return;
+        long start = 0;
+        if(tracing) {
+            beginSection(SECTION_LISTENER);
+            start = System.nanoTime();
+        }
+        switch(callback) {
+            case CALLBACK_CREATE:
+                listener.onCreate(this, index, value);
+                break;
+            case CALLBACK_SEEK:
+                listener.onSeek(this, index, value);
+                break;
+            case CALLBACK_SEEK_START:
+                listener.onSeekStart(this, index, value);
+                break;
+            case CALLBACK_SEEK_STOP:
+                listener.onSeekStop(this, index, value);
+                break;
+        }
+        if(tracing) {
+            long duration = System.nanoTime() - start;
+            endSection();
+            if(tracer != null)
+                tracer.onListenerCallback(this, callback, duration);
+        }
+    }
+
+    /**
+     * Runtime costs of a bar, for attributing jank to the bar or to its listener.
+     * All durations are measured with System.nanoTime().
+     */
+    public interface Tracer {
+        /**
+         * Called after every onDraw() with the time spent on each phase.
+         */
+        void onDraw(RangeSeekBar rangeSeekBar, int thumbCount, long gutterNanos, long histogramNanos, long rangeNanos, long thumbsNanos);
+
+        /**
+         * @param latencyMillis time from the event to the end of its handling, including any invalidate
+         * @param durationNanos time spent handling the event, listener callbacks included
+         */
+        void onTouch(RangeSeekBar rangeSeekBar, int action, long latencyMillis, long durationNanos);
+
+        /**
+         * @param callback one of the CALLBACK_ constants
+         */
+        void onListenerCallback(RangeSeekBar rangeSeekBar, int callback, long durationNanos);
+    }
+
+    /**
+     * Report draw, touch and listener costs to a tracer. Nothing is measured while
+     * there is no tracer and trace sections are off.
+     *
+     * @param tracer the tracer, or null to stop tracing
+     */
+    public void setTracer(Tracer tracer) {
+        this.tracer = tracer;
+        tracing = tracer != null || traceSections;
+    }
+
+    public Tracer getTracer() {
+        return tracer;
+    }
+
+    /**
+     * Wrap draw phases, touch handling and listener callbacks in
+     * {@link android.os.Trace} sections so they show up in systrace.
+     * Only has an effect on API 18 and up. Off by default.
+     */
+    public void setTraceSectionsEnabled(boolean enabled) {
+        traceSections = enabled && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+        tracing = tracer != null || traceSections;
+    }
+
+    public boolean isTraceSectionsEnabled() {
+        return traceSections;
+    }
+
+    private void beginSection(String name) {
+        if(traceSections)
+            TraceSections.begin(name);
+    }
+
+    private void endSection() {
+        if(traceSections)
+            TraceSections.end();
+    }
+
+    /**
+     * Kept in its own class so Trace is only loaded on API 18 and up.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static final class TraceSections {
+        static void begin(String name) {
+            Trace.beginSection(name);
+        }
+
+        static void end() {
+            Trace.endSection();
+        }
+    }
+
+    public interface RangeCountListener {
+        /**
+         * @param count the new count in range, or -1 if there is no range count data
+         */
+        void onRangeCountChanged(RangeSeekBar rangeSeekBar, int count);
+    }
+
     public void setListener(RangeSeekBarListener listener) {
         this.listener = listener;
     }
@@ -643,7 +1411,7 @@ public class RangeSeekBar extends View {
     }
 
     public void setOrientation(int orientation) {
-        this.orientation = orientation;
+        edit().setOrientation(orientation).apply();
     }
 
     public float getThumbWidth() {
@@ -651,7 +1419,7 @@ public class RangeSeekBar extends View {
     }
 
     public void setThumbWidth(float thumbWidth) {
-        this.thumbWidth = thumbWidth;
+        edit().setThumbWidth(thumbWidth).apply();
     }
 
     public float getThumbHeight() {
@@ -659,39 +1427,39 @@ public class RangeSeekBar extends View {
     }
 
     public void setThumbHeight(float thumbHeight) {
-        this.thumbHeight = thumbHeight;
+        edit().setThumbHeight(thumbHeight).apply();
     }
 
     public boolean isLimitThumbRange() {
-        return limitThumbRange;
+        return model.isLimitThumbRange();
     }
 
     public void setLimitThumbRange(boolean limitThumbRange) {
-        this.limitThumbRange = limitThumbRange;
+        model.setLimitThumbRange(limitThumbRange);
     }
 
     public float getScaleRangeMin() {
-        return scaleRangeMin;
+        return mapping.getScaleRangeMin();
     }
 
     public void setScaleRangeMin(float scaleRangeMin) {
-        this.scaleRangeMin = scaleRangeMin;
+        edit().setScaleRangeMin(scaleRangeMin).apply();
     }
 
     public float getScaleRangeMax() {
-        return scaleRangeMax;
+        return mapping.getScaleRangeMax();
     }
 
     public void setScaleRangeMax(float scaleRangeMax) {
-        this.scaleRangeMax = scaleRangeMax;
+        edit().setScaleRangeMax(scaleRangeMax).apply();
     }
 
     public float getScaleStep() {
-        return scaleStep;
+        return mapping.getScaleStep();
     }
 
     public void setScaleStep(float scaleStep) {
-        this.scaleStep = scaleStep;
+        edit().setScaleStep(scaleStep).apply();
     }
 
     public Drawable getTrackDrawable() {
@@ -699,7 +1467,7 @@ public class RangeSeekBar extends View {
     }
 
     public void setTrackDrawable(Drawable trackDrawable) {
-        this.trackDrawable = trackDrawable;
+        edit().setTrackDrawable(trackDrawable).apply();
     }
 
     public Drawable getRangeDrawable() {
@@ -707,27 +1475,570 @@ public class RangeSeekBar extends View {
     }
 
     public void setRangeDrawable(Drawable rangeDrawable) {
-        this.rangeDrawable = rangeDrawable;
+        edit().setRangeDrawable(rangeDrawable).apply();
     }
 
     public Drawable getThumbDrawable() {
         return thumbDrawable;
     }
 
+    /**
+     * Thumbs get copies of the new drawable, dropping any set through Thumb.setDrawable().
+     */
     public void setThumbDrawable(Drawable thumbDrawable) {
-        this.thumbDrawable = thumbDrawable;
+        edit().setThumbDrawable(thumbDrawable).apply();
+    }
+
+    /**
+     * Change several settings at once, e.g.
+     * <pre>
+     * bar.edit().setOrientation(RangeSeekBar.VERTICAL).setScaleRange(0, 1000, 10).apply();
+     * </pre>
+     * Nothing changes until {@link Editor#apply()}. The single setters are edits of one setting.
+     */
+    public Editor edit() {
+        return new Editor();
+    }
+
+    /**
+     * Pending configuration changes of a bar. Starts out with the current
+     * configuration. apply() validates it and then recomputes the track and
+     * moves the thumbs to their values on it in one pass, followed by one
+     * requestLayout() if the size of the bar may change and one invalidate().
+     */
+    public class Editor {
+        private int orientation = RangeSeekBar.this.orientation;
+        private float thumbWidth = RangeSeekBar.this.thumbWidth;
+        private float thumbHeight = RangeSeekBar.this.thumbHeight;
+        private boolean limitThumbRange = model.isLimitThumbRange();
+        private float scaleRangeMin = mapping.getScaleRangeMin();
+        private float scaleRangeMax = mapping.getScaleRangeMax();
+        private float scaleStep = mapping.getScaleStep();
+        private StepScale stepScale = model.getStepScale();
+        private ScaleMapper scaleMapper = model.getScaleMapper();
+        private Drawable trackDrawable = RangeSeekBar.this.trackDrawable;
+        private Drawable rangeDrawable = RangeSeekBar.this.rangeDrawable;
+        private Drawable thumbDrawable = RangeSeekBar.this.thumbDrawable;
+
+        private Editor() {
+        }
+
+        /**
+         * @param orientation HORIZONTAL or VERTICAL
+         */
+        public Editor setOrientation(int orientation) {
+            this.orientation = orientation;
+            return this;
+        }
+
+        public Editor setThumbWidth(float thumbWidth) {
+            this.thumbWidth = thumbWidth;
+            return this;
+        }
+
+        public Editor setThumbHeight(float thumbHeight) {
+            this.thumbHeight = thumbHeight;
+            return this;
+        }
+
+        public Editor setLimitThumbRange(boolean limitThumbRange) {
+            this.limitThumbRange = limitThumbRange;
+            return this;
+        }
+
+        /**
+         * Like the other float scale setters this drops any step scale or scale mapper.
+         */
+        public Editor setScaleRange(float scaleRangeMin, float scaleRangeMax, float scaleStep) {
+            this.scaleRangeMin = scaleRangeMin;
+            this.scaleRangeMax = scaleRangeMax;
+            return setScaleStep(scaleStep);
+        }
+
+        public Editor setScaleRangeMin(float scaleRangeMin) {
+            return setScaleRange(scaleRangeMin, scaleRangeMax, scaleStep);
+        }
+
+        public Editor setScaleRangeMax(float scaleRangeMax) {
+            return setScaleRange(scaleRangeMin, scaleRangeMax, scaleStep);
+        }
+
+        public Editor setScaleStep(float scaleStep) {
+            this.scaleStep = scaleStep;
+            stepScale = null;
+            scaleMapper = null;
+            return this;
+        }
+
+        /**
+         * @see RangeSeekBar#setStepScale(StepScale)
+         */
+        public Editor setStepScale(StepScale stepScale) {
+            this.stepScale = stepScale;
+            if(stepScale != null)
+                scaleMapper = null;
+            return this;
+        }
+
+        /**
+         * @see RangeSeekBar#setScaleMapper(ScaleMapper)
+         */
+        public Editor setScaleMapper(ScaleMapper scaleMapper) {
+            this.scaleMapper = scaleMapper;
+            if(scaleMapper != null)
+                stepScale = null;
+            return this;
+        }
+
+        public Editor setTrackDrawable(Drawable trackDrawable) {
+            this.trackDrawable = trackDrawable;
+            return this;
+        }
+
+        public Editor setRangeDrawable(Drawable rangeDrawable) {
+            this.rangeDrawable = rangeDrawable;
+            return this;
+        }
+
+        /**
+         * Thumbs get copies of the new drawable, dropping any set through Thumb.setDrawable().
+         */
+        public Editor setThumbDrawable(Drawable thumbDrawable) {
+            this.thumbDrawable = thumbDrawable;
+            return this;
+        }
+
+        /**
+         * Apply all changes, or none if the configuration is invalid.
+         * Thumbs keep their values, clamped to and snapped on the new scale.
+         *
+         * @throws IllegalArgumentException if the orientation is unknown, a thumb size
+         * is negative or not finite, the scale has a bound or step that isn't
+         * finite or a negative step, or there is no thumb drawable
+         */
+        public void apply() {
+            if(orientation != HORIZONTAL && orientation != VERTICAL)
+                throw new IllegalArgumentException("Unknown orientation "+orientation);
+            if(!(thumbWidth >= 0) || !(thumbHeight >= 0) || Float.isInfinite(thumbWidth) || Float.isInfinite(thumbHeight))
+                throw new IllegalArgumentException("Invalid thumb size "+thumbWidth+"x"+thumbHeight);
+            if(stepScale == null && (!isFinite(scaleRangeMin) || !isFinite(scaleRangeMax) || !isFinite(scaleStep) || scaleStep < 0))
+                throw new IllegalArgumentException("Invalid scale "+scaleRangeMin+" to "+scaleRangeMax+" in steps of "+scaleStep);
+            if(thumbDrawable == null)
+                throw new IllegalArgumentException("No thumb drawable");
+
+            boolean layout = orientation != RangeSeekBar.this.orientation
+                    || thumbWidth != RangeSeekBar.this.thumbWidth
+                    || thumbHeight != RangeSeekBar.this.thumbHeight;
+            boolean scale = stepScale != model.getStepScale() || scaleMapper != model.getScaleMapper()
+                    || (stepScale == null && (scaleRangeMin != mapping.getScaleRangeMin()
+                        || scaleRangeMax != mapping.getScaleRangeMax() || scaleStep != mapping.getScaleStep()));
+            boolean drawables = trackDrawable != RangeSeekBar.this.trackDrawable
+                    || rangeDrawable != RangeSeekBar.this.rangeDrawable;
+            boolean thumbs = thumbDrawable != RangeSeekBar.this.thumbDrawable;
+            // Steps of the thumbs only mean something on the scale they were set on
+            StepScale previousStepScale = model.getStepScale();
+
+            model.setLimitThumbRange(limitThumbRange);
+            if(!layout && !scale && !drawables && !thumbs)
+                return;
+
+            RangeSeekBar.this.orientation = orientation;
+            RangeSeekBar.this.thumbWidth = thumbWidth;
+            RangeSeekBar.this.thumbHeight = thumbHeight;
+            RangeSeekBar.this.trackDrawable = trackDrawable;
+            RangeSeekBar.this.rangeDrawable = rangeDrawable;
+            if(thumbs) {
+                RangeSeekBar.this.thumbDrawable = thumbDrawable;
+                pressedThumbIndex = -1;
+                initThumbDrawables();
+            }
+            if(scale)
+                model.setScale(scaleRangeMin, scaleRangeMax, scaleStep, stepScale, scaleMapper);
+            // Before the first layout there is no track yet, onSizeChanged() sets it up
+            if(layout && !firstRun)
+                updatePixelRange(getWidth(), getHeight());
+            else {
+                if(layout || drawables)
+                    invalidateBounds();
+                if(scale)
+                    rebinHistogram();
+            }
+            if((layout || scale) && !firstRun) {
+                model.remap(previousStepScale);
+                invalidateThumbBounds();
+            }
+
+            if(layout)
+                requestLayout();
+            invalidate();
+        }
+    }
+
+    private static boolean isFinite(float f) {
+        return !Float.isNaN(f) && !Float.isInfinite(f);
+    }
+
+    /**
+     * Scale and thumb settings for {@link RangeSeekBar#bind(Config, float[])}.
+     * A config can be shared by any number of bars.
+     */
+    public static class Config {
+        private float scaleRangeMin = 0;
+        private float scaleRangeMax = 100;
+        private float scaleStep = DEFAULT_STEP;
+        private StepScale stepScale;
+        private ScaleMapper scaleMapper;
+        private boolean limitThumbRange = true;
+
+        public Config setScaleRange(float scaleRangeMin, float scaleRangeMax, float scaleStep) {
+            this.scaleRangeMin = scaleRangeMin;
+            this.scaleRangeMax = scaleRangeMax;
+            this.scaleStep = scaleStep;
+            return this;
+        }
+
+        /**
+         * @param stepScale used instead of the float scale if not null
+         */
+        public Config setStepScale(StepScale stepScale) {
+            this.stepScale = stepScale;
+            return this;
+        }
+
+        /**
+         * @param scaleMapper used instead of the float scale if not null
+         */
+        public Config setScaleMapper(ScaleMapper scaleMapper) {
+            this.scaleMapper = scaleMapper;
+            return this;
+        }
+
+        public Config setLimitThumbRange(boolean limitThumbRange) {
+            this.limitThumbRange = limitThumbRange;
+            return this;
+        }
+    }
+
+    /**
+     * Rebind the bar to a new scale and thumb values, e.g. in a recycled list row.
+     * Thumb state, Thumb objects and thumb drawables are reused. Drawables of thumbs
+     * dropped when the count shrinks are kept for when it grows again, so only
+     * thumbs beyond any earlier count get a new drawable. The view is invalidated
+     * once and no listener callbacks are fired. Before the first layout the values
+     * replace the even distribution.
+     * A float only holds about 7 significant digits, so on a step scale over large
+     * values, e.g. epoch milliseconds, bind by step with {@link #bind(Config, int[])}.
+     *
+     * @param values one value per thumb, which also sets the number of thumbs
+     * @throws IllegalArgumentException if config has both a step scale and a scale mapper
+     */
+    public void bind(Config config, float[] values) {
+        bind(config, values, null);
+    }
+
+    /**
+     * Like {@link #bind(Config, float[])}, placing the thumbs exactly on steps of
+     * the step scale of config.
+     *
+     * @param steps one step index per thumb, which also sets the number of thumbs
+     * @throws IllegalArgumentException if config has no step scale or also has a scale mapper
+     */
+    public void bind(Config config, int[] steps) {
+        StepScale stepScale = config.stepScale;
+        if(stepScale == null)
+            throw new IllegalArgumentException("Binding steps needs a config with a step scale");
+        float[] values = new float[steps.length];
+        for(int i = 0; i < steps.length; i++)
+            values[i] = stepScale.toFloat(stepScale.clampStep(steps[i]));
+        bind(config, values, steps);
+    }
+
+    private void bind(Config config, float[] values, int[] steps) {
+        if(config.stepScale != null && config.scaleMapper != null)
+            throw new IllegalArgumentException("A config can't have both a step scale and a scale mapper");
+
+        // Drop what is left of an interaction with the previous binding
+        if(pressedThumbIndex >= 0) {
+            Drawable pressed = getThumbDrawableAt(pressedThumbIndex);
+            if(pressed != null)
+                pressed.setState(STATE_DEFAULT);
+            pressedThumbIndex = -1;
+        }
+        cancelSeekDispatch();
+        seekPending = false;
+        isSeeking = false;
+
+        model.setLimitThumbRange(config.limitThumbRange);
+        model.setScale(config.scaleRangeMin, config.scaleRangeMax, config.scaleStep, config.stepScale, config.scaleMapper);
+        rebinHistogram();
+
+        resizeThumbs(values.length);
+        if(firstRun) {
+            restoredValues = values.clone();
+            restoredSteps = (steps != null) ? steps.clone() : new int[0];
+        } else {
+            for(int i = 0; i < values.length; i++) {
+                if(steps != null)
+                    model.assignStep(i, steps[i]);
+                else
+                    model.assignValue(i, values[i]);
+            }
+        }
+        invalidate();
+    }
+
+    /**
+     * Change the number of thumbs, keeping the arrays, Thumb objects and drawables we have.
+     */
+    private void resizeThumbs(int noThumbs) {
+        if(thumbDrawables.length < noThumbs) {
+            Drawable[] drawables = new Drawable[noThumbs];
+            int[] generations = new int[noThumbs];
+            Thumb[] views = new Thumb[noThumbs];
+            // Slots past thumbCount hold pooled drawables and views too
+            int keep = thumbDrawables.length;
+            System.arraycopy(thumbDrawables, 0, drawables, 0, keep);
+            System.arraycopy(thumbViews, 0, views, 0, keep);
+            thumbDrawables = drawables;
+            thumbBoundsGenerations = generations;
+            thumbViews = views;
+        }
+        for(int i = 0; i < noThumbs; i++) {
+            thumbBoundsGenerations[i] = -1;
+            if(!sharedThumbDrawable && thumbDrawables[i] == null)
+                thumbDrawables[i] = getThumbDrawable().getConstantState().newDrawable();
+        }
+        if(sharedThumbDrawable) {
+            // Only custom drawables live in thumbDrawables, drop those of removed thumbs
+            for(int i = noThumbs; i < thumbCount; i++) {
+                if(thumbDrawables[i] != null) {
+                    thumbDrawables[i] = null;
+                    customThumbDrawables--;
+                }
+            }
+        }
+        model.reset(noThumbs);
+        thumbCount = noThumbs;
     }
 
     public void initThumbs(int noThumbs) {
-        if(thumbs != null) {
-            thumbs.clear();
-            for(int i = 0; i < noThumbs; i++) {
-                Thumb thumb = new Thumb(getThumbDrawable());
-                thumbs.add(thumb);
+        if(thumbIndex != null) {
+            if(thumbDrawables.length < noThumbs) {
+                thumbDrawables = new Drawable[noThumbs];
+                thumbBoundsGenerations = new int[noThumbs];
+                thumbViews = new Thumb[noThumbs];
             }
+            model.reset(noThumbs);
+            // Drop drawables of thumbs we no longer have, including those pooled by resizeThumbs()
+            for(int i = noThumbs; i < thumbDrawables.length; i++)
+                thumbDrawables[i] = null;
+            thumbCount = noThumbs;
+            pressedThumbIndex = -1;
+            initThumbDrawables();
+        }
+    }
+
+    private void initThumbDrawables() {
+        customThumbDrawables = 0;
+        for(int i = 0; i < thumbCount; i++) {
+            // Clone the drawable so we can set the states individually
+            thumbDrawables[i] = sharedThumbDrawable ? null : getThumbDrawable().getConstantState().newDrawable();
+            thumbBoundsGenerations[i] = -1;
         }
+        // Pooled slots would otherwise come back with the old drawable, or pass
+        // for custom drawables in shared mode
+        for(int i = thumbCount; i < thumbDrawables.length; i++)
+            thumbDrawables[i] = null;
+        if(sharedThumbDrawable) {
+            sharedThumb = getThumbDrawable().getConstantState().newDrawable();
+            pressedThumb = getThumbDrawable().getConstantState().newDrawable();
+        } else {
+            sharedThumb = null;
+            pressedThumb = null;
+        }
+    }
+
+    private Drawable getThumbDrawableAt(int index) {
+        Drawable drawable = thumbDrawables[index];
+        if(drawable == null && sharedThumbDrawable)
+            drawable = (index == pressedThumbIndex) ? pressedThumb : sharedThumb;
+        return drawable;
+    }
+
+    /**
+     * Draw all idle thumbs with one shared drawable instead of a copy per thumb.
+     * Only the pressed thumb gets a copy of its own, so memory and inflate time
+     * no longer grow with the number of thumbs. Switching mode recreates the thumb
+     * drawables from getThumbDrawable(), dropping any set through Thumb.setDrawable().
+     */
+    public void setSharedThumbDrawable(boolean sharedThumbDrawable) {
+        if(this.sharedThumbDrawable == sharedThumbDrawable)
+            return;
+        this.sharedThumbDrawable = sharedThumbDrawable;
+        pressedThumbIndex = -1;
+        initThumbDrawables();
+        invalidate();
+    }
+
+    public boolean isSharedThumbDrawable() {
+        return sharedThumbDrawable;
     }
     
+    /**
+     *  {@inheritDoc}
+     */
+    @Override
+    public void setPadding(int left, int top, int right, int bottom) {
+        super.setPadding(left, top, right, bottom);
+        invalidateBounds();
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+    @Override
+    public void setPaddingRelative(int start, int top, int end, int bottom) {
+        super.setPaddingRelative(start, top, end, bottom);
+        invalidateBounds();
+    }
+
+    @Override
+    protected Parcelable onSaveInstanceState() {
+        SavedState state = new SavedState(super.onSaveInstanceState());
+        state.orientation = orientation;
+        state.limitThumbRange = model.isLimitThumbRange();
+        state.thumbWidth = thumbWidth;
+        state.thumbHeight = thumbHeight;
+        state.scaleRangeMin = mapping.getScaleRangeMin();
+        state.scaleRangeMax = mapping.getScaleRangeMax();
+        state.scaleStep = mapping.getScaleStep();
+        state.currentThumbIndex = model.getCurrentIndex();
+        state.values = model.getValues(new float[thumbCount]);
+        state.steps = new int[(model.getStepScale() != null) ? thumbCount : 0];
+        for(int i = 0; i < state.steps.length; i++)
+            state.steps[i] = model.getStep(i);
+        return state;
+    }
+
+    /**
+     * Restores the configuration and thumb values. Before the first layout the
+     * values replace the even distribution and are reported through onCreate
+     * as usual. A step scale or scale mapper set again by the app is kept,
+     * thumbs on a step scale get their exact steps back.
+     */
+    @Override
+    protected void onRestoreInstanceState(Parcelable state) {
+        if(!(state instanceof SavedState)) {
+            super.onRestoreInstanceState(state);
+            return;
+        }
+        SavedState saved = (SavedState) state;
+        super.onRestoreInstanceState(saved.getSuperState());
+
+        orientation = saved.orientation;
+        model.setLimitThumbRange(saved.limitThumbRange);
+        thumbWidth = saved.thumbWidth;
+        thumbHeight = saved.thumbHeight;
+        if(model.getStepScale() == null && model.getScaleMapper() == null) {
+            model.setScaleRange(saved.scaleRangeMin, saved.scaleRangeMax, saved.scaleStep);
+            rebinHistogram();
+        }
+        if(saved.values.length != thumbCount)
+            initThumbs(saved.values.length);
+        if(saved.currentThumbIndex < thumbCount)
+            model.setCurrentIndex(saved.currentThumbIndex);
+
+        restoredValues = saved.values;
+        restoredSteps = saved.steps;
+        if(!firstRun) {
+            // Already laid out - the restored orientation and thumb size change the
+            // pixel range now, and the configuration may change the size on relayout
+            updatePixelRange(getWidth(), getHeight());
+            requestLayout();
+            applyRestoredState();
+            invalidate();
+        }
+    }
+
+    /**
+     * Move all thumbs to the restored values in one pass, without invalidating the view.
+     */
+    private void applyRestoredState() {
+        boolean exact = model.getStepScale() != null && restoredSteps.length == thumbCount;
+        for(int i = 0; i < thumbCount && i < restoredValues.length; i++) {
+            if(exact)
+                model.assignStep(i, restoredSteps[i]);
+            else
+                model.assignValue(i, restoredValues[i]);
+        }
+        invalidateThumbBounds();
+        restoredValues = null;
+        restoredSteps = null;
+    }
+
+    /**
+     * Thumb state and configuration as primitives and primitive arrays.
+     */
+    static class SavedState extends BaseSavedState {
+        int orientation;
+        boolean limitThumbRange;
+        float thumbWidth;
+        float thumbHeight;
+        float scaleRangeMin;
+        float scaleRangeMax;
+        float scaleStep;
+        int currentThumbIndex;
+        float[] values;
+        // Exact steps if a step scale was set, empty otherwise
+        int[] steps;
+
+        SavedState(Parcelable superState) {
+            super(superState);
+        }
+
+        private SavedState(Parcel in) {
+            super(in);
+            orientation = in.readInt();
+            limitThumbRange = in.readInt() != 0;
+            thumbWidth = in.readFloat();
+            thumbHeight = in.readFloat();
+            scaleRangeMin = in.readFloat();
+            scaleRangeMax = in.readFloat();
+            scaleStep = in.readFloat();
+            currentThumbIndex = in.readInt();
+            values = in.createFloatArray();
+            steps = in.createIntArray();
+        }
+
+        @Override
+        public void writeToParcel(Parcel out, int flags) {
+            super.writeToParcel(out, flags);
+            out.writeInt(orientation);
+            out.writeInt(limitThumbRange ? 1 : 0);
+            out.writeFloat(thumbWidth);
+            out.writeFloat(thumbHeight);
+            out.writeFloat(scaleRangeMin);
+            out.writeFloat(scaleRangeMax);
+            out.writeFloat(scaleStep);
+            out.writeInt(currentThumbIndex);
+            out.writeFloatArray(values);
+            out.writeIntArray(steps);
+        }
+
+        public static final Parcelable.Creator<SavedState> CREATOR = new Parcelable.Creator<SavedState>() {
+            @Override
+            public SavedState createFromParcel(Parcel in) {
+                return new SavedState(in);
+            }
+
+            @Override
+            public SavedState[] newArray(int size) {
+                return new SavedState[size];
+            }
+        };
+    }
+
     public boolean isSeeking() {
         return isSeeking;
     }
@@ -740,12 +2051,24 @@ public class RangeSeekBar extends View {
         super.drawableStateChanged();
 
         int[] drawableState = getDrawableState();
-        trackDrawable.setState(drawableState);
-        rangeDrawable.setState(drawableState);
-        if(!thumbs.isEmpty()) {
-            for(Thumb thumb : thumbs) {
-                thumb.getDrawable().setState(drawableState);
-            }
+        // Re-render the cached track only if its look changed
+        if(trackDrawable != null && trackDrawable.setState(drawableState))
+            trackBoundsValid = false;
+        if(rangeDrawable != null)
+            rangeDrawable.setState(drawableState);
+        if(thumbClusterDrawable != null)
+            thumbClusterDrawable.setState(drawableState);
+        if(sharedThumbDrawable) {
+            // One update per bucket instead of one per thumb
+            sharedThumb.setState(drawableState);
+            if(pressedThumbIndex < 0)
+                pressedThumb.setState(drawableState);
+            if(customThumbDrawables == 0)
+                return;
+        }
+        for(int i = 0; i < thumbCount; i++) {
+            if(thumbDrawables[i] != null)
+                thumbDrawables[i].setState(drawableState);
         }
     }
 }
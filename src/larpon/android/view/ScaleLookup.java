@@ -0,0 +1,49 @@
+package larpon.android.view;
+
+/**
+ * Pixel to value table of a {@link ScaleMapper}, one entry per pixel of the track.
+ *
+ * Built when the track is laid out, so a touch sample costs one array lookup
+ * no matter how expensive the mapper is. The table is reused across rebuilds.
+ */
+final class ScaleLookup {
+
+    private float[] values = new float[0];
+    private int size;
+    private float pixelRangeMin;
+    private float pixelRangeMax;
+    private ScaleMapper mapper;
+
+    /**
+     * Sample mapper over the pixel range. Does nothing if the table already
+     * holds that mapper over that range.
+     */
+    void build(ScaleMapper mapper, float pixelRangeMin, float pixelRangeMax) {
+        if(mapper == this.mapper && pixelRangeMin == this.pixelRangeMin && pixelRangeMax == this.pixelRangeMax && size > 0)
+            return;
+        float pixelRange = pixelRangeMax - pixelRangeMin;
+        int size = (pixelRange > 0) ? (int) Math.ceil(pixelRange) + 1 : 1;
+        if(values.length < size)
+            values = new float[size];
+        for(int i = 0; i < size; i++)
+            values[i] = mapper.toValue((pixelRange > 0) ? Math.min(i / pixelRange, 1) : 0);
+        this.size = size;
+        this.pixelRangeMin = pixelRangeMin;
+        this.pixelRangeMax = pixelRangeMax;
+        this.mapper = mapper;
+    }
+
+    boolean isBuilt() {
+        return size > 0;
+    }
+
+    float pixelToValue(float pixelValue) {
+        int i = Math.round(pixelValue - pixelRangeMin);
+        if(i < 0)
+            i = 0;
+        else if(i >= size)
+            i = size - 1;
+        return values[i];
+    }
+
+}
@@ -0,0 +1,122 @@
+package larpon.android.view;
+
+import java.util.Arrays;
+
+/**
+ * Maps a fraction of the track (0 at the start, 1 at the end) to a value and back.
+ *
+ * A {@link RangeSeekBar} with a mapper samples {@link #toValue(float)} once per
+ * pixel of the track when it is laid out and looks values up from that table
+ * while seeking, so mappers are free to use transcendental math.
+ */
+public interface ScaleMapper {
+
+    float toValue(float fraction);
+
+    float toFraction(float value);
+
+    /**
+     * Values spread evenly along the track.
+     */
+    final class Linear implements ScaleMapper {
+        private final float min;
+        private final float max;
+
+        public Linear(float min, float max) {
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        public float toValue(float fraction) {
+            return min + fraction * (max - min);
+        }
+
+        @Override
+        public float toFraction(float value) {
+            return (max != min) ? (value - min) / (max - min) : 0;
+        }
+    }
+
+    /**
+     * Every equal length of track multiplies the value by the same factor.
+     */
+    final class Log implements ScaleMapper {
+        private final double min;
+        private final double logRange;
+
+        /**
+         * @throws IllegalArgumentException unless both ends are positive
+         */
+        public Log(float min, float max) {
+            if(!(min > 0) || !(max > 0))
+                throw new IllegalArgumentException("Log scale ends must be positive, got "+min+" - "+max);
+            this.min = min;
+            this.logRange = Math.log((double) max / min);
+        }
+
+        @Override
+        public float toValue(float fraction) {
+            return (float) (min * Math.exp(fraction * logRange));
+        }
+
+        @Override
+        public float toFraction(float value) {
+            if(logRange == 0 || !(value > 0))
+                return 0;
+            return (float) (Math.log(value / min) / logRange);
+        }
+    }
+
+    /**
+     * Linear between control points, e.g. fractions {0, 0.5f, 1} and values
+     * {0, 100, 10000} gives the first half of the track to 0 - 100.
+     */
+    final class Piecewise implements ScaleMapper {
+        private final float[] fractions;
+        private final float[] values;
+
+        /**
+         * @param fractions strictly increasing track fractions of the control points
+         * @param values strictly increasing values at the control points
+         * @throws IllegalArgumentException if there are fewer than two points,
+         * the arrays differ in length or either isn't strictly increasing
+         */
+        public Piecewise(float[] fractions, float[] values) {
+            if(fractions.length < 2 || fractions.length != values.length)
+                throw new IllegalArgumentException("Expected at least two fractions with one value each");
+            for(int i = 1; i < fractions.length; i++) {
+                if(!(fractions[i] > fractions[i-1]) || !(values[i] > values[i-1]))
+                    throw new IllegalArgumentException("Control points must be strictly increasing");
+            }
+            this.fractions = fractions.clone();
+            this.values = values.clone();
+        }
+
+        @Override
+        public float toValue(float fraction) {
+            return interpolate(fractions, values, fraction);
+        }
+
+        @Override
+        public float toFraction(float value) {
+            return interpolate(values, fractions, value);
+        }
+
+        private static float interpolate(float[] from, float[] to, float x) {
+            int last = from.length - 1;
+            if(x <= from[0])
+                return to[0];
+            if(x >= from[last])
+                return to[last];
+            int i = Arrays.binarySearch(from, x);
+            if(i >= 0)
+                return to[i];
+            // x lies between from[i-1] and from[i]
+            i = -i - 1;
+            float t = (x - from[i-1]) / (from[i] - from[i-1]);
+            return to[i-1] + t * (to[i] - to[i-1]);
+        }
+    }
+
+}
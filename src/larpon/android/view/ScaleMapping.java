@@ -0,0 +1,155 @@
+package larpon.android.view;
+
+/**
+ * Maps between the pixel range of a {@link RangeSeekBar} and its value scale.
+ *
+ * Slopes and the step count are cached and only rebuilt when one of the
+ * ranges changes, so the per-sample calls are plain multiply-adds.
+ */
+final class ScaleMapping {
+
+    private float pixelRangeMin;
+    private float pixelRangeMax;
+    private float scaleRangeMin;
+    private float scaleRangeMax;
+    private float scaleStep;
+    // Step count set through setSteppedRange(), 0 to derive it from scaleStep
+    private int fixedStepCount;
+
+    // Derived state - rebuilt by update()
+    private float scalePerPixel;
+    private float pixelPerScale;
+    private int stepCount;
+    private float pixelPerStep;
+    private float stepPerPixel;
+    private float scalePerStep;
+
+    ScaleMapping(float scaleRangeMin, float scaleRangeMax, float scaleStep) {
+        this.scaleRangeMin = scaleRangeMin;
+        this.scaleRangeMax = scaleRangeMax;
+        this.scaleStep = scaleStep;
+        update();
+    }
+
+    void setPixelRange(float pixelRangeMin, float pixelRangeMax) {
+        if(this.pixelRangeMin == pixelRangeMin && this.pixelRangeMax == pixelRangeMax)
+            return;
+        this.pixelRangeMin = pixelRangeMin;
+        this.pixelRangeMax = pixelRangeMax;
+        update();
+    }
+
+    void setScaleRange(float scaleRangeMin, float scaleRangeMax, float scaleStep) {
+        if(fixedStepCount == 0 && this.scaleRangeMin == scaleRangeMin && this.scaleRangeMax == scaleRangeMax && this.scaleStep == scaleStep)
+            return;
+        this.scaleRangeMin = scaleRangeMin;
+        this.scaleRangeMax = scaleRangeMax;
+        this.scaleStep = scaleStep;
+        this.fixedStepCount = 0;
+        update();
+    }
+
+    /**
+     * Set the scale range with an exact number of steps between its ends.
+     * Used for scales whose step count doesn't survive float division, see {@link StepScale}.
+     */
+    void setSteppedRange(float scaleRangeMin, float scaleRangeMax, int stepCount) {
+        this.scaleRangeMin = scaleRangeMin;
+        this.scaleRangeMax = scaleRangeMax;
+        this.scaleStep = (stepCount > 0) ? (scaleRangeMax - scaleRangeMin) / stepCount : 0;
+        this.fixedStepCount = stepCount;
+        update();
+    }
+
+    private void update() {
+        float pixelRange = (pixelRangeMax - pixelRangeMin);
+        float scaleRange = (scaleRangeMax - scaleRangeMin);
+
+        scalePerPixel = (pixelRange != 0) ? (scaleRange / pixelRange) : 0;
+        pixelPerScale = (scaleRange != 0) ? (pixelRange / scaleRange) : 0;
+
+        // A step larger than the range, or no step at all, means no quantization.
+        // Steps count from the start of the track, so on a scale running from
+        // high to low scalePerStep is negative
+        if(fixedStepCount > 0)
+            stepCount = fixedStepCount;
+        else
+            stepCount = (scaleStep > 0) ? (int) Math.floor(Math.abs(scaleRange) / scaleStep) : 0;
+        if(stepCount > 0) {
+            pixelPerStep = pixelRange / stepCount;
+            stepPerPixel = (pixelRange != 0) ? (stepCount / pixelRange) : 0;
+            scalePerStep = scaleRange / stepCount;
+        } else {
+            pixelPerStep = 0;
+            stepPerPixel = 0;
+            scalePerStep = 0;
+        }
+    }
+
+    float getScaleRangeMin() {
+        return scaleRangeMin;
+    }
+
+    float getScaleRangeMax() {
+        return scaleRangeMax;
+    }
+
+    float getScaleStep() {
+        return scaleStep;
+    }
+
+    float pixelToScale(float pixelValue) {
+        return ((pixelValue - pixelRangeMin) * scalePerPixel) + scaleRangeMin;
+    }
+
+    float scaleToPixel(float scaleValue) {
+        return ((scaleValue - scaleRangeMin) * pixelPerScale) + pixelRangeMin;
+    }
+
+    int pixelToStep(float pixelValue) {
+        return Math.round((pixelValue - pixelRangeMin) * stepPerPixel);
+    }
+
+    float stepToPixel(int step) {
+        return (step * pixelPerStep) + pixelRangeMin;
+    }
+
+    float stepToScale(int step) {
+        return (step * scalePerStep) + scaleRangeMin;
+    }
+
+    /**
+     * Clamp a scale value to the scale range and snap it to the nearest step.
+     */
+    float quantize(float scaleValue) {
+        float low = Math.min(scaleRangeMin, scaleRangeMax);
+        float high = Math.max(scaleRangeMin, scaleRangeMax);
+        if(scaleValue < low)
+            scaleValue = low;
+        else if(scaleValue > high)
+            scaleValue = high;
+        if(stepCount > 0)
+            return stepToScale(Math.round((scaleValue - scaleRangeMin) / scalePerStep));
+        return scaleValue;
+    }
+
+    /**
+     * Snap a pixel coordinate to the pixel coordinate of the nearest step.
+     */
+    float snapPixel(float pixelValue) {
+        if(stepCount > 0)
+            return stepToPixel(pixelToStep(pixelValue));
+        return pixelValue;
+    }
+
+    /**
+     * Fused pixel to quantized scale value.
+     * Equal to pixelToScale(snapPixel(pixelValue)) but without the round trip.
+     */
+    float pixelToStepScale(float pixelValue) {
+        if(stepCount > 0)
+            return stepToScale(pixelToStep(pixelValue));
+        return pixelToScale(pixelValue);
+    }
+
+}
@@ -0,0 +1,346 @@
+package larpon.android.view;
+
+/**
+ * The thumbs of a {@link RangeSeekBar} and how they move while seeking, without the view.
+ *
+ * Holds the scale, the value and position of every thumb and the seek state:
+ * which thumb is being moved and the limits it is clamped to. A touch picks the
+ * closest thumb with {@link #press(float)} and moves it with {@link #seekTo(float)},
+ * which keeps it on the track, between its neighbours when thumb range is limited
+ * and on its steps, and gets it out of a stack of thumbs. Positions are pixel
+ * coordinates along the track, as in the bar.
+ */
+final class SeekModel {
+
+    interface Listener {
+        /**
+         * Called when a single thumb moved through a seek, a move method or distributeEvenly().
+         * The assign methods don't report their moves.
+         */
+        void onThumbMoved(int index, float from, float to);
+    }
+
+    private final ScaleMapping mapping;
+    private final ThumbIndex thumbIndex = new ThumbIndex();
+    private final ScaleLookup scaleLookup = new ScaleLookup();
+    private StepScale stepScale;
+    // Non-linear scale, sampled into scaleLookup when the pixel range is set
+    private ScaleMapper scaleMapper;
+    private boolean limitThumbRange = true;
+    private float pixelRangeMin;
+    private float pixelRangeMax;
+
+    private int thumbCount;
+    private float[] thumbValues = new float[0];
+    // Exact step index of each thumb while a StepScale is set
+    private int[] thumbSteps = new int[0];
+
+    // The thumb being seeked and the positions it is clamped to
+    private int currentThumbIndex;
+    private float lowLimit;
+    private float highLimit;
+
+    private Listener listener;
+
+    SeekModel(ScaleMapping mapping) {
+        this.mapping = mapping;
+    }
+
+    ThumbIndex getThumbIndex() {
+        return thumbIndex;
+    }
+
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Change the number of thumbs. All thumbs start at value and position 0.
+     */
+    void reset(int noThumbs) {
+        if(thumbValues.length < noThumbs) {
+            thumbValues = new float[noThumbs];
+            thumbSteps = new int[noThumbs];
+        }
+        for(int i = 0; i < noThumbs; i++) {
+            thumbValues[i] = 0;
+            thumbSteps[i] = 0;
+        }
+        thumbIndex.reset(noThumbs);
+        thumbCount = noThumbs;
+        if(currentThumbIndex >= thumbCount)
+            currentThumbIndex = 0;
+    }
+
+    int getThumbCount() {
+        return thumbCount;
+    }
+
+    void setPixelRange(float pixelRangeMin, float pixelRangeMax) {
+        this.pixelRangeMin = pixelRangeMin;
+        this.pixelRangeMax = pixelRangeMax;
+        mapping.setPixelRange(pixelRangeMin, pixelRangeMax);
+        if(scaleMapper != null)
+            scaleLookup.build(scaleMapper, pixelRangeMin, pixelRangeMax);
+    }
+
+    float getPixelRangeMin() {
+        return pixelRangeMin;
+    }
+
+    float getPixelRangeMax() {
+        return pixelRangeMax;
+    }
+
+    /**
+     * Go back to the linear float scale. Thumbs keep their values.
+     */
+    void setScaleRange(float scaleRangeMin, float scaleRangeMax, float scaleStep) {
+        stepScale = null;
+        scaleMapper = null;
+        mapping.setScaleRange(scaleRangeMin, scaleRangeMax, scaleStep);
+    }
+
+    /**
+     * Set the whole scale without touching the thumbs, see {@link #remap(StepScale)}.
+     * The float scale is used if neither stepScale nor scaleMapper is set.
+     */
+    void setScale(float scaleRangeMin, float scaleRangeMax, float scaleStep, StepScale stepScale, ScaleMapper scaleMapper) {
+        this.stepScale = stepScale;
+        this.scaleMapper = scaleMapper;
+        if(stepScale != null) {
+            int stepCount = stepScale.getStepCount();
+            mapping.setSteppedRange(stepScale.toFloat(0), stepScale.toFloat(stepCount), stepCount);
+        } else
+            mapping.setScaleRange(scaleRangeMin, scaleRangeMax, scaleStep);
+        if(scaleMapper != null && pixelRangeMax > pixelRangeMin)
+            scaleLookup.build(scaleMapper, pixelRangeMin, pixelRangeMax);
+    }
+
+    StepScale getStepScale() {
+        return stepScale;
+    }
+
+    ScaleMapper getScaleMapper() {
+        return scaleMapper;
+    }
+
+    void setLimitThumbRange(boolean limitThumbRange) {
+        this.limitThumbRange = limitThumbRange;
+    }
+
+    boolean isLimitThumbRange() {
+        return limitThumbRange;
+    }
+
+    float getValue(int index) {
+        return thumbValues[index];
+    }
+
+    /**
+     * @return the step index of the thumb on the step scale, or on the
+     * float scale if no step scale is set
+     */
+    int getStep(int index) {
+        if(stepScale != null)
+            return thumbSteps[index];
+        return mapping.pixelToStep(thumbIndex.getPosition(index));
+    }
+
+    float getPosition(int index) {
+        return thumbIndex.getPosition(index);
+    }
+
+    float[] getValues(float[] out) {
+        System.arraycopy(thumbValues, 0, out, 0, thumbCount);
+        return out;
+    }
+
+    int getCurrentIndex() {
+        return currentThumbIndex;
+    }
+
+    void setCurrentIndex(int index) {
+        currentThumbIndex = index;
+    }
+
+    /**
+     * Start seeking with the thumb closest to coordinate, as on ACTION_DOWN.
+     *
+     * @return the index of that thumb
+     */
+    int press(float coordinate) {
+        currentThumbIndex = thumbIndex.getClosestIndex(coordinate);
+        lowLimit = getLowerThumbRangeLimit(currentThumbIndex);
+        highLimit = getHigherThumbRangeLimit(currentThumbIndex);
+        return currentThumbIndex;
+    }
+
+    /**
+     * Move the current thumb towards a coordinate.
+     * Make sure we stay in our tracks's bounds or limited by other thumbs
+     */
+    void seekTo(float coordinate) {
+        if(coordinate < lowLimit) {
+            if(lowLimit == highLimit && currentThumbIndex >= thumbCount-1) {
+                currentThumbIndex = getUnstuckFrom(currentThumbIndex);
+                setPosition(currentThumbIndex, coordinate);
+                lowLimit = getLowerThumbRangeLimit(currentThumbIndex);
+                highLimit = getHigherThumbRangeLimit(currentThumbIndex);
+            } else
+                setPosition(currentThumbIndex, lowLimit);
+        } else if(coordinate > highLimit) {
+            setPosition(currentThumbIndex, highLimit);
+        } else {
+            if(stepScale != null)
+                moveStep(currentThumbIndex, mapping.pixelToStep(coordinate));
+            else if(scaleMapper == null)
+                // Onto the nearest step, if the scale has steps
+                move(currentThumbIndex, mapping.snapPixel(coordinate), mapping.pixelToStepScale(coordinate));
+            else
+                setPosition(currentThumbIndex, coordinate);
+        }
+    }
+
+    /**
+     * @return the lowest index of the thumbs stacked with the thumb at index
+     */
+    private int getUnstuckFrom(int index) {
+        return thumbIndex.getIndexAt(thumbIndex.getGroupStart(index));
+    }
+
+    private float getLowerThumbRangeLimit(int index) {
+        float limit = pixelRangeMin;
+        if(limitThumbRange && index < thumbCount)
+            limit = thumbIndex.getLowerLimit(index, limit);
+        return limit;
+    }
+
+    private float getHigherThumbRangeLimit(int index) {
+        float limit = pixelRangeMax;
+        if(limitThumbRange && index < thumbCount)
+            limit = thumbIndex.getHigherLimit(index, limit);
+        return limit;
+    }
+
+    void distributeEvenly() {
+        if(thumbCount > 0) {
+            float even = pixelRangeMax/thumbCount;
+            float lastPos = even/2;
+            for(int i = 0; i < thumbCount; i++) {
+                setPosition(i, asStep(lastPos));
+                lastPos += even;
+            }
+        }
+    }
+
+    private float asStep(float pixelValue) {
+        if(scaleMapper != null)
+            return pixelValue;
+        return mapping.snapPixel(pixelValue);
+    }
+
+    float pixelToValue(float pixelValue) {
+        if(scaleMapper != null)
+            return scaleLookup.pixelToValue(pixelValue);
+        return mapping.pixelToScale(pixelValue);
+    }
+
+    float valueToPixel(float value) {
+        if(scaleMapper != null) {
+            float fraction = Math.max(0, Math.min(1, scaleMapper.toFraction(value)));
+            return pixelRangeMin + fraction * (pixelRangeMax - pixelRangeMin);
+        }
+        return mapping.scaleToPixel(value);
+    }
+
+    void setPosition(int index, float position) {
+        // Update value based on new position
+        move(index, position, pixelToValue(position));
+    }
+
+    /**
+     * Move a thumb to a value as is, or to the nearest step on a step scale.
+     */
+    void moveToValue(int index, float value) {
+        if(stepScale != null) {
+            moveStep(index, stepScale.stepOf((double) value));
+            return;
+        }
+        // Update position based on new value
+        move(index, valueToPixel(value), value);
+    }
+
+    void moveStep(int index, int step) {
+        float oldPosition = thumbIndex.getPosition(index);
+        assignStep(index, step);
+        moved(index, oldPosition);
+    }
+
+    private void move(int index, float position, float value) {
+        float oldPosition = thumbIndex.getPosition(index);
+        assign(index, position, value);
+        moved(index, oldPosition);
+    }
+
+    private void moved(int index, float oldPosition) {
+        if(listener != null)
+            listener.onThumbMoved(index, oldPosition, thumbIndex.getPosition(index));
+    }
+
+    private void assign(int index, float position, float value) {
+        if(stepScale != null) {
+            // The step is the source of truth, position and value follow from it
+            assignStep(index, mapping.pixelToStep(position));
+            return;
+        }
+        thumbValues[index] = value;
+        thumbIndex.setPosition(index, position);
+    }
+
+    /**
+     * Move every thumb to where its value is on the current pixel range and scale,
+     * in one pass and without reporting the moves.
+     *
+     * @param previous the step scale the thumbs were set on, or null. Thumbs keep
+     * their steps on the same step scale and are moved by their exact value from
+     * another one, as a float value is too coarse for e.g. epoch milliseconds
+     */
+    void remap(StepScale previous) {
+        for(int i = 0; i < thumbCount; i++) {
+            if(stepScale != null && previous == stepScale)
+                assignStep(i, thumbSteps[i]);
+            else if(stepScale != null && previous != null)
+                assignStep(i, stepScale.stepOf(previous.toDouble(thumbSteps[i])));
+            else
+                assignValue(i, thumbValues[i]);
+        }
+    }
+
+    /**
+     * Quantize a value on the current scale and move a thumb to it without reporting the move.
+     */
+    void assignValue(int index, float value) {
+        if(stepScale != null)
+            assignStep(index, stepScale.stepOf((double) value));
+        else if(scaleMapper != null) {
+            // Resolve through the table so values match what a touch would give
+            float position = valueToPixel(value);
+            assign(index, position, scaleLookup.isBuilt() ? scaleLookup.pixelToValue(position) : value);
+        } else {
+            value = mapping.quantize(value);
+            assign(index, mapping.scaleToPixel(value), value);
+        }
+    }
+
+    /**
+     * Move a thumb to a step of the step scale without reporting the move.
+     */
+    void assignStep(int index, int step) {
+        step = stepScale.clampStep(step);
+        thumbSteps[index] = step;
+        thumbValues[index] = stepScale.toFloat(step);
+        thumbIndex.setPosition(index, mapping.stepToPixel(step));
+    }
+
+}
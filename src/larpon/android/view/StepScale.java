@@ -0,0 +1,144 @@
+package larpon.android.view;
+
+/**
+ * A stepped scale over long or double values, addressed by integer step index.
+ *
+ * Where {@link ScaleMapping} derives values through float arithmetic, a value
+ * here is always min + step * stepSize computed from the step index, so long
+ * scales such as epoch milliseconds or prices in cents stay exact and values
+ * never drift off their steps.
+ */
+public final class StepScale {
+
+    // Relative slack when counting the steps of a double scale, so 0..0.3 in
+    // steps of 0.1 has 3 steps and not the 2 plain division gives
+    private static final double STEP_EPSILON = 1e-9;
+
+    private final boolean integral;
+    private final long longMin;
+    private final long longStep;
+    private final double doubleMin;
+    private final double doubleStep;
+    private final int stepCount;
+
+    private StepScale(boolean integral, long longMin, long longStep, double doubleMin, double doubleStep, int stepCount) {
+        this.integral = integral;
+        this.longMin = longMin;
+        this.longStep = longStep;
+        this.doubleMin = doubleMin;
+        this.doubleStep = doubleStep;
+        this.stepCount = stepCount;
+    }
+
+    /**
+     * A scale from min towards max in steps of step. If step doesn't divide
+     * the range the scale ends at the last step below max.
+     *
+     * @throws IllegalArgumentException if step isn't positive, max is below min
+     * or the scale has more than Integer.MAX_VALUE steps
+     */
+    public static StepScale ofLong(long min, long max, long step) {
+        if(step <= 0)
+            throw new IllegalArgumentException("Step must be positive, got "+step);
+        long range = max - min;
+        if(max < min || range < 0)
+            throw new IllegalArgumentException("Invalid range "+min+" - "+max);
+        long count = range / step;
+        if(count > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Too many steps: "+count);
+        return new StepScale(true, min, step, min, step, (int) count);
+    }
+
+    /**
+     * A scale from min towards max in steps of step. If step doesn't divide
+     * the range the scale ends at the last step below max.
+     *
+     * @throws IllegalArgumentException if step isn't positive, max is below min
+     * or the scale has more than Integer.MAX_VALUE steps
+     */
+    public static StepScale ofDouble(double min, double max, double step) {
+        if(!(step > 0))
+            throw new IllegalArgumentException("Step must be positive, got "+step);
+        if(!(max >= min) || Double.isInfinite(max - min))
+            throw new IllegalArgumentException("Invalid range "+min+" - "+max);
+        double steps = (max - min) / step;
+        double count = Math.round(steps);
+        if(Math.abs(steps - count) > STEP_EPSILON * Math.max(1, steps))
+            count = Math.floor(steps);
+        if(count > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Too many steps: "+count);
+        // The long fields are only used by integral scales
+        return new StepScale(false, 0, 0, min, step, (int) count);
+    }
+
+    /**
+     * @return true if this scale holds long values
+     */
+    public boolean isIntegral() {
+        return integral;
+    }
+
+    /**
+     * @return the index of the last step. Valid step indices are 0 to getStepCount()
+     */
+    public int getStepCount() {
+        return stepCount;
+    }
+
+    public int clampStep(int step) {
+        if(step < 0)
+            return 0;
+        if(step > stepCount)
+            return stepCount;
+        return step;
+    }
+
+    public long toLong(int step) {
+        if(integral)
+            return longMin + step * longStep;
+        return Math.round(toDouble(step));
+    }
+
+    public double toDouble(int step) {
+        if(integral)
+            return toLong(step);
+        return doubleMin + step * doubleStep;
+    }
+
+    public float toFloat(int step) {
+        return (float) toDouble(step);
+    }
+
+    /**
+     * @return the index of the step nearest to value, clamped to the scale
+     */
+    public int stepOf(long value) {
+        if(!integral)
+            return stepOf((double) value);
+        if(value <= longMin)
+            return 0;
+        long offset = value - longMin;
+        if(offset < 0)
+            // Overflowed - value is far above the scale
+            return stepCount;
+        long step = offset / longStep;
+        long remainder = offset % longStep;
+        // Round half up without overflowing on huge steps
+        if(remainder >= longStep - remainder)
+            step++;
+        return step > stepCount ? stepCount : (int) step;
+    }
+
+    /**
+     * @return the index of the step nearest to value, clamped to the scale
+     */
+    public int stepOf(double value) {
+        if(integral)
+            return stepOf(Math.round(value));
+        double step = Math.rint((value - doubleMin) / doubleStep);
+        if(!(step > 0))
+            return 0;
+        return step > stepCount ? stepCount : (int) step;
+    }
+
+}
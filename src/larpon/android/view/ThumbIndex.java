@@ -0,0 +1,243 @@
+package larpon.android.view;
+
+/**
+ * Pixel positions of the thumbs of a {@link RangeSeekBar} and the
+ * position queries run against them while seeking and drawing.
+ *
+ * Besides the positions, the thumbs are kept ordered by position (ties
+ * ordered by thumb index). The order is repaired incrementally when a thumb
+ * moves, which is O(1) while thumbs don't pass each other. That gives
+ * O(log n) closest thumb lookup and O(1) lowest/highest thumb and neighbour
+ * limits for thumbs that keep their order, as they do when thumb range is limited.
+ * Thumbs at the same position form a group, which is a run in order, so the
+ * bounds of a stack are found by binary search instead of tracked on every move.
+ */
+final class ThumbIndex {
+
+    private float[] positions = new float[0];
+    // Thumb indices ordered by position
+    private int[] order = new int[0];
+    // Position of each thumb in order
+    private int[] rank = new int[0];
+    private int size;
+
+    void reset(int size) {
+        if(positions.length < size) {
+            positions = new float[size];
+            order = new int[size];
+            rank = new int[size];
+        }
+        for(int i = 0; i < size; i++) {
+            positions[i] = 0;
+            order[i] = i;
+            rank[i] = i;
+        }
+        this.size = size;
+    }
+
+    int size() {
+        return size;
+    }
+
+    float getPosition(int index) {
+        return positions[index];
+    }
+
+    void setPosition(int index, float position) {
+        positions[index] = position;
+        // Move the thumb down or up in order until it is in place again
+        int r = rank[index];
+        while(r > 0 && before(index, order[r-1])) {
+            order[r] = order[r-1];
+            rank[order[r]] = r;
+            r--;
+        }
+        while(r < size-1 && before(order[r+1], index)) {
+            order[r] = order[r+1];
+            rank[order[r]] = r;
+            r++;
+        }
+        order[r] = index;
+        rank[index] = r;
+    }
+
+    private boolean before(int a, int b) {
+        return positions[a] < positions[b] || (positions[a] == positions[b] && a < b);
+    }
+
+    /**
+     * @return the index of the thumb with the lowest position
+     */
+    int getLowestIndex() {
+        return order[0];
+    }
+
+    /**
+     * @return the index of the thumb with the highest position
+     */
+    int getHighestIndex() {
+        return order[size-1];
+    }
+
+    /**
+     * @return the index of the thumb closest to coordinate.
+     * Of thumbs at equal distance the one with the highest index wins.
+     */
+    int getClosestIndex(float coordinate) {
+        if(size == 0)
+            return 0;
+        int lo = lowerBound(coordinate);
+        int closest = -1;
+        float shortestDistance = Float.MAX_VALUE;
+        if(lo > 0) {
+            // Last in order below coordinate - highest index at that position
+            closest = order[lo-1];
+            shortestDistance = Math.abs(coordinate-positions[closest]);
+        }
+        if(lo < size) {
+            // Highest index of the thumbs at or just above coordinate
+            int candidate = order[upperBound(positions[order[lo]])-1];
+            float distance = Math.abs(coordinate-positions[candidate]);
+            if(distance < shortestDistance || (distance == shortestDistance && candidate > closest))
+                closest = candidate;
+        }
+        return closest;
+    }
+
+    /**
+     * @return the index of the thumb at a position in order
+     */
+    int getIndexAt(int rank) {
+        return order[rank];
+    }
+
+    /**
+     * @return the first position in order with a thumb position >= coordinate
+     */
+    int lowerBound(float coordinate) {
+        int lo = 0, hi = size;
+        while(lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if(positions[order[mid]] < coordinate)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * @return the first position in order with a thumb position > coordinate
+     */
+    private int upperBound(float coordinate) {
+        int lo = 0, hi = size;
+        while(lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if(positions[order[mid]] <= coordinate)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * @return the first position in order of the group of thumbs at the
+     * position of the thumb at index. Ties are ordered by index, so that
+     * is where the thumb with the lowest index in the group is.
+     */
+    int getGroupStart(int index) {
+        int r = rank[index];
+        // Most thumbs aren't stacked
+        if(r == 0 || positions[order[r-1]] != positions[index])
+            return r;
+        return lowerBound(positions[index]);
+    }
+
+    /**
+     * @return the position in order just past the group of thumbs at the
+     * position of the thumb at index
+     */
+    int getGroupEnd(int index) {
+        int r = rank[index];
+        if(r == size-1 || positions[order[r+1]] != positions[index])
+            return r+1;
+        return upperBound(positions[index]);
+    }
+
+    /**
+     * Walk the groups in order, skipping over each by binary search.
+     *
+     * @param leaders receives the lowest thumb index of each group
+     * @param sizes receives the number of thumbs in each group, may be null
+     * @return the number of groups written
+     */
+    int getGroups(int[] leaders, int[] sizes) {
+        int count = 0;
+        int r = 0;
+        while(r < size && count < leaders.length && (sizes == null || count < sizes.length)) {
+            int end = getGroupEnd(order[r]);
+            leaders[count] = order[r];
+            if(sizes != null)
+                sizes[count] = end - r;
+            count++;
+            r = end;
+        }
+        return count;
+    }
+
+    /**
+     * @return the highest position not above the thumb at index held by a
+     * thumb with a lower index, or limit if that is higher
+     */
+    float getLowerLimit(int index, float limit) {
+        // Everything below in order is at or below the thumb
+        for(int r = rank[index]-1; r >= 0; r--) {
+            int i = order[r];
+            if(positions[i] <= limit)
+                break;
+            if(i < index)
+                return positions[i];
+        }
+        return limit;
+    }
+
+    /**
+     * @return the lowest position not below the thumb at index held by a
+     * thumb with a higher index, or limit if that is lower
+     */
+    float getHigherLimit(int index, float limit) {
+        // Everything above in order is at or above the thumb
+        for(int r = rank[index]+1; r < size; r++) {
+            int i = order[r];
+            if(positions[i] >= limit)
+                break;
+            if(i > index)
+                return positions[i];
+        }
+        return limit;
+    }
+
+    /**
+     * Find the k thumbs closest to coordinate by walking outwards from it in order.
+     *
+     * @return the number of thumb indices written to out, closest first - 0 if k isn't positive
+     */
+    int getClosestIndices(float coordinate, int k, int[] out) {
+        int count = Math.max(0, Math.min(Math.min(k, size), out.length));
+        int right = lowerBound(coordinate);
+        int left = right - 1;
+        for(int n = 0; n < count; n++) {
+            if(left < 0)
+                out[n] = order[right++];
+            else if(right >= size)
+                out[n] = order[left--];
+            else if(coordinate-positions[order[left]] <= positions[order[right]]-coordinate)
+                out[n] = order[left--];
+            else
+                out[n] = order[right++];
+        }
+        return count;
+    }
+
+}
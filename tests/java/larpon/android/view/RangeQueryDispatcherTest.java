@@ -0,0 +1,186 @@
+package larpon.android.view;
+
+import android.test.InstrumentationTestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives a {@link RangeQueryDispatcher} with a fake data source that records
+ * what it is queried for and can be held back to keep a query in flight.
+ */
+public class RangeQueryDispatcherTest extends InstrumentationTestCase {
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private static class FakeSource implements RangeQueryDispatcher.Query<float[]> {
+        final List<float[]> queried = Collections.synchronizedList(new ArrayList<float[]>());
+        // Counted down to let held queries return
+        volatile CountDownLatch gate;
+        final CountDownLatch started = new CountDownLatch(1);
+
+        @Override
+        public float[] run(float[] values) throws Exception {
+            queried.add(values);
+            started.countDown();
+            CountDownLatch gate = this.gate;
+            if(gate != null)
+                gate.await();
+            return values.clone();
+        }
+    }
+
+    private static class Results implements RangeQueryDispatcher.Callback<float[]> {
+        // Only touched on the main thread
+        final List<float[]> delivered = new ArrayList<float[]>();
+        final List<Exception> errors = new ArrayList<Exception>();
+        final Semaphore deliveries = new Semaphore(0);
+
+        @Override
+        public void onResult(float[] values, float[] result) {
+            delivered.add(result);
+            deliveries.release();
+        }
+
+        @Override
+        public void onError(float[] values, Exception error) {
+            errors.add(error);
+            deliveries.release();
+        }
+    }
+
+    private FakeSource source;
+    private Results results;
+    private RangeQueryDispatcher<float[]> dispatcher;
+    private RangeSeekBar bar;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        source = new FakeSource();
+        results = new Results();
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                dispatcher = new RangeQueryDispatcher<float[]>(source, results);
+                bar = new RangeSeekBar(getInstrumentation().getTargetContext());
+                bar.layout(0, 0, 1080, 100);
+                bar.setListener(dispatcher);
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        dispatcher.shutdown();
+        super.tearDown();
+    }
+
+    /**
+     * Set the values of the bar on the main thread, which requests a query through onSeek().
+     */
+    private void seek(final float low, final float high) {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                bar.setThumbValues(new float[] { low, high });
+            }
+        });
+    }
+
+    private void seekStop() {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                dispatcher.onSeekStop(bar, 0, bar.getThumbValue(0));
+            }
+        });
+    }
+
+    private void awaitDeliveries(int count) throws InterruptedException {
+        assertTrue("Timed out waiting for results", results.deliveries.tryAcquire(count, TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        getInstrumentation().waitForIdleSync();
+    }
+
+    private void assertDelivered(float[]... expected) {
+        assertTrue(results.errors.isEmpty());
+        assertEquals(expected.length, results.delivered.size());
+        for(int i = 0; i < expected.length; i++)
+            assertTrue(Arrays.equals(expected[i], results.delivered.get(i)));
+    }
+
+    public void testLatestWins() throws InterruptedException {
+        // Keep the result of the first query from being dropped by an interrupt
+        dispatcher.setInterruptInFlight(false);
+        source.gate = new CountDownLatch(1);
+        seek(10, 20);
+        assertTrue(source.started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        // The second request waits and is pushed out by the third
+        seek(30, 40);
+        seek(50, 60);
+        source.gate.countDown();
+        awaitDeliveries(1);
+
+        assertDelivered(new float[] { 50, 60 });
+        assertEquals(2, source.queried.size());
+        assertTrue(Arrays.equals(new float[] { 10, 20 }, source.queried.get(0)));
+        assertTrue(Arrays.equals(new float[] { 50, 60 }, source.queried.get(1)));
+    }
+
+    public void testSupersededResultIsDropped() throws InterruptedException {
+        dispatcher.setInterruptInFlight(false);
+        source.gate = new CountDownLatch(1);
+        seek(10, 20);
+        assertTrue(source.started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        // The first result is posted before the second query runs on the same thread
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                dispatcher.cancel();
+            }
+        });
+        source.gate.countDown();
+        seek(30, 40);
+        awaitDeliveries(1);
+
+        assertDelivered(new float[] { 30, 40 });
+        assertEquals(2, source.queried.size());
+    }
+
+    public void testDebounceFoldsSeeks() throws InterruptedException {
+        dispatcher.setDebounce(200);
+        seek(10, 20);
+        seek(30, 40);
+        seek(50, 60);
+        awaitDeliveries(1);
+
+        assertDelivered(new float[] { 50, 60 });
+        assertEquals(1, source.queried.size());
+
+        // Nothing else is on its way
+        Thread.sleep(400);
+        getInstrumentation().waitForIdleSync();
+        assertEquals(1, source.queried.size());
+        assertEquals(1, results.delivered.size());
+    }
+
+    public void testSeekStopSkipsDebounce() throws InterruptedException {
+        // Longer than the wait for results
+        dispatcher.setDebounce(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS * 2));
+        seek(10, 20);
+        seek(30, 40);
+        seekStop();
+        awaitDeliveries(1);
+
+        assertDelivered(new float[] { 30, 40 });
+        assertEquals(1, source.queried.size());
+    }
+
+}
@@ -0,0 +1,84 @@
+package larpon.android.view;
+
+import android.os.Debug;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.view.MotionEvent;
+
+/**
+ * Checks that dragging a thumb allocates nothing once the bar is laid out.
+ */
+public class RangeSeekBarAllocationTest extends AndroidTestCase {
+
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 100;
+    private static final int MOVES = 64;
+
+    private RangeSeekBar bar;
+    private MotionEvent[] drag;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        bar = new RangeSeekBar(getContext());
+        bar.layout(0, 0, WIDTH, HEIGHT);
+
+        // Obtain every event up front so only the bar is counted
+        long downTime = SystemClock.uptimeMillis();
+        drag = new MotionEvent[MOVES + 2];
+        drag[0] = MotionEvent.obtain(downTime, downTime, MotionEvent.ACTION_DOWN, 0, HEIGHT/2, 0);
+        for(int i = 1; i <= MOVES; i++)
+            drag[i] = MotionEvent.obtain(downTime, downTime + i * 16, MotionEvent.ACTION_MOVE, (float) WIDTH * i / (MOVES + 1), HEIGHT/2, 0);
+        drag[MOVES + 1] = MotionEvent.obtain(downTime, downTime + (MOVES + 1) * 16, MotionEvent.ACTION_UP, WIDTH, HEIGHT/2, 0);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for(MotionEvent event : drag)
+            event.recycle();
+        super.tearDown();
+    }
+
+    private void replay() {
+        for(MotionEvent event : drag)
+            bar.onTouchEvent(event);
+    }
+
+    private int countAllocations() {
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        replay();
+        int count = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+        return count;
+    }
+
+    public void testDragDoesNotAllocate() {
+        // Let anything created lazily on the first touch be created
+        replay();
+        assertEquals(0, countAllocations());
+    }
+
+    public void testDragWithListenerDoesNotAllocate() {
+        bar.setListener(new RangeSeekBar.RangeSeekBarListener() {
+            @Override
+            public void onCreate(RangeSeekBar rangeSeekBar, int index, float value) {
+            }
+
+            @Override
+            public void onSeek(RangeSeekBar rangeSeekBar, int index, float value) {
+            }
+
+            @Override
+            public void onSeekStart(RangeSeekBar rangeSeekBar, int index, float value) {
+            }
+
+            @Override
+            public void onSeekStop(RangeSeekBar rangeSeekBar, int index, float value) {
+            }
+        });
+        replay();
+        assertEquals(0, countAllocations());
+    }
+
+}
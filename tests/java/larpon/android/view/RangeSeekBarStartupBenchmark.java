@@ -0,0 +1,55 @@
+package larpon.android.view;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/**
+ * Times creating bars with and without the default drawable cache.
+ * Results are logged under the RangeSeekBarStartup tag, e.g.
+ *   $ adb logcat -s RangeSeekBarStartup
+ */
+public class RangeSeekBarStartupBenchmark extends AndroidTestCase {
+
+    private static final String TAG = "RangeSeekBarStartup";
+
+    private static final int BARS = 50;
+    private static final int ROUNDS = 10;
+
+    @Override
+    protected void tearDown() throws Exception {
+        RangeSeekBar.setDefaultDrawableCacheEnabled(true);
+        super.tearDown();
+    }
+
+    /**
+     * @return the fastest of ROUNDS rounds of creating BARS bars, in nanoseconds
+     */
+    private long createBars(boolean cache) {
+        RangeSeekBar.setDefaultDrawableCacheEnabled(cache);
+        RangeSeekBar[] bars = new RangeSeekBar[BARS];
+        long best = Long.MAX_VALUE;
+        for(int round = 0; round < ROUNDS; round++) {
+            // Every round resolves the defaults again, as the first screen of an app would
+            DefaultDrawables.clear();
+            long start = System.nanoTime();
+            for(int i = 0; i < BARS; i++)
+                bars[i] = new RangeSeekBar(getContext());
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        for(RangeSeekBar bar : bars)
+            assertNotNull(bar.getThumbDrawable());
+        return best;
+    }
+
+    public void testStartup() {
+        // Warm up class loading and the resource caches of the framework
+        createBars(false);
+        createBars(true);
+
+        long uncached = createBars(false);
+        long cached = createBars(true);
+        Log.i(TAG, String.format("%d bars: %.2f ms without cache, %.2f ms with cache (%.1f us per bar)",
+                BARS, uncached / 1e6, cached / 1e6, cached / 1e3 / BARS));
+    }
+
+}